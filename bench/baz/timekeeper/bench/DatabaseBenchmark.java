@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package baz.timekeeper.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import baz.timekeeper.core.*;
+import baz.timekeeper.database.*;
+
+/**
+ * {@link DatabaseBenchmark} measures the entry points of the database layer against {@link SyntheticDatabase}s of different sizes. Run it via
+ * <code>ant bench</code>, which also reports the allocation rate.
+ *
+ * @author Sebastian Raubach
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DatabaseBenchmark
+{
+	@Param({"10", "100", "500"})
+	private int projects;
+
+	@Param({"1", "5", "20"})
+	private int years;
+
+	private int         day;
+	private HistoryData data;
+	private LocalDate   quarter;
+	private RangeTotals rangeTotals;
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException
+	{
+		SyntheticDatabase.use(projects, years);
+
+		/* A day in the middle of the history */
+		day = (int) SyntheticDatabase.getLastDay().minusDays(years * 365 / 2).toEpochDay();
+		data = new HistoryData(null, Project.getAll().get(0), day, 0);
+		quarter = SyntheticDatabase.getLastDay().minusMonths(6).withDayOfMonth(1);
+
+		RangeTotals.invalidate();
+		rangeTotals = RangeTotals.getInstance();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		RangeTotals.invalidate();
+		Database.shutdown();
+	}
+
+	@Benchmark
+	public List<Project> projectGetAll() throws SQLException
+	{
+		/* Go to the database rather than the cache */
+		ProjectRegistry.invalidate();
+		return Project.getAll();
+	}
+
+	@Benchmark
+	public List<HistoryData> historyDataGetAll() throws SQLException
+	{
+		return HistoryData.getAll();
+	}
+
+	@Benchmark
+	public HistoryData historyDataWrite() throws SQLException
+	{
+		data.setTime(data.getTime() + 1);
+		data.write();
+		return data;
+	}
+
+	@Benchmark
+	public DailyLog dailyLogGetForDay() throws SQLException
+	{
+		return DailyLog.getForDay(day);
+	}
+
+	@Benchmark
+	public HistoryStore historyOpen() throws SQLException
+	{
+		return History.open();
+	}
+
+	@Benchmark
+	public int historyOpenAndScroll() throws SQLException
+	{
+		/* Open the history, then load every page and touch every day once */
+		HistoryStore store = History.open();
+		int total = 0;
+
+		for (int row = 0; row < store.getRowCount(); row++)
+		{
+			if (!store.isLoaded(row))
+				store.addPage(store.loadPage(row / HistoryStore.PAGE_SIZE));
+
+			total += store.get(0, row);
+		}
+
+		return total;
+	}
+
+	@Benchmark
+	public Map<Project, Long> rollupsQuarter() throws SQLException
+	{
+		return Rollups.getTotals(quarter, quarter.plusMonths(3).minusDays(1));
+	}
+
+	@Benchmark
+	public Map<Project, Long> rollupsWholeHistory() throws SQLException
+	{
+		/* Starts and ends mid-week, so every kind of period is involved */
+		return Rollups.getTotals(SyntheticDatabase.getLastDay().minusYears(years).plusDays(3), SyntheticDatabase.getLastDay().minusDays(2));
+	}
+
+	@Benchmark
+	public Map<Project, Long> rangeTotalsLast90Days()
+	{
+		return rangeTotals.getTotals(SyntheticDatabase.getLastDay().minusDays(89), SyntheticDatabase.getLastDay());
+	}
+}
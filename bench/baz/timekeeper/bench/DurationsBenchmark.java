@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.bench;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import baz.timekeeper.util.*;
+
+/**
+ * {@link DurationsBenchmark} compares {@link Durations} with the way durations used to be formatted (<code>String.format</code>) and parsed
+ * (<code>SimpleDateFormat</code> and {@link Calendar}).
+ *
+ * @author Sebastian Raubach
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DurationsBenchmark
+{
+	private final SimpleDateFormat time   = new SimpleDateFormat("HH:mm:ss");
+	private final char[]           buffer = new char[Durations.MAX_LENGTH];
+
+	private int    seconds;
+	private String text;
+
+	@Setup(Level.Trial)
+	public void setUp()
+	{
+		seconds = 8 * 3600 + 17 * 60 + 42;
+		text = Durations.format(seconds);
+	}
+
+	@Benchmark
+	public String formatStringFormat()
+	{
+		long second = TimeUnit.SECONDS.toSeconds(seconds) % 60;
+		long minute = TimeUnit.SECONDS.toMinutes(seconds) % 60;
+		long hour = TimeUnit.SECONDS.toHours(seconds) % 24;
+		return String.format("%02d:%02d:%02d", hour, minute, second);
+	}
+
+	@Benchmark
+	public String formatDurations()
+	{
+		return Durations.format(seconds);
+	}
+
+	@Benchmark
+	public int formatDurationsBuffer()
+	{
+		return Durations.format(seconds, buffer, 0);
+	}
+
+	@Benchmark
+	public int parseSimpleDateFormat() throws ParseException
+	{
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(time.parse(text));
+		return cal.get(Calendar.SECOND) + cal.get(Calendar.MINUTE) * 60 + cal.get(Calendar.HOUR_OF_DAY) * 3600;
+	}
+
+	@Benchmark
+	public int parseDurations()
+	{
+		return Durations.parse(text);
+	}
+}
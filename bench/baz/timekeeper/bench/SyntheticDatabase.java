@@ -0,0 +1,93 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package baz.timekeeper.bench;
+
+import java.io.*;
+import java.sql.*;
+import java.time.*;
+
+import baz.timekeeper.core.*;
+import baz.timekeeper.database.*;
+import baz.timekeeper.tools.*;
+
+/**
+ * {@link SyntheticDatabase} provides databases of a given size for the benchmarks, created by the {@link DatasetGenerator}. Every project has
+ * an entry for every day. The databases are kept in the temporary folder and reused, so that each benchmark fork doesn't have to create them
+ * again.
+ *
+ * @author Sebastian Raubach
+ */
+public class SyntheticDatabase
+{
+	private static final long SEED = 42;
+
+	/**
+	 * Points the {@link Environment} at a database with the given number of projects and years of history, creating it if necessary
+	 *
+	 * @param projects The number of projects
+	 * @param years    The number of years of daily history
+	 * @return The data folder
+	 * @throws SQLException Thrown if the database can't be created
+	 */
+	public static File use(int projects, int years) throws SQLException
+	{
+		File folder = new File(new File(System.getProperty("java.io.tmpdir"), "timekeeper-bench"), "p" + projects + "-y" + years + "-s" + SEED);
+		File done = new File(folder, "complete");
+
+		try
+		{
+			if (!done.exists())
+			{
+				/* Start from scratch, a previous attempt may have been interrupted */
+				File[] old = folder.listFiles();
+				if (old != null)
+				{
+					for (File file : old)
+						file.delete();
+				}
+
+				new DatasetGenerator().setSeed(SEED)
+									  .setProjects(projects)
+									  .setYears(years)
+									  .setSparsity(0)
+									  .generate(folder);
+
+				done.createNewFile();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new SQLException(e);
+		}
+
+		Database.shutdown();
+		ProjectRegistry.invalidate();
+		Environment.setReadOnly(false);
+		Environment.setDataFolder(folder);
+
+		return folder;
+	}
+
+	/**
+	 * Returns the last day of the generated history
+	 *
+	 * @return The last day of the generated history
+	 */
+	public static LocalDate getLastDay()
+	{
+		return DatasetGenerator.DEFAULT_LAST_DAY;
+	}
+}
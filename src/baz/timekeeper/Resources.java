@@ -209,6 +209,17 @@ public class Resources
 			return newColor;
 		}
 
+		/**
+		 * Loads and returns the {@link Color} with the given {@link RGB} value
+		 *
+		 * @param rgb The {@link RGB} value
+		 * @return The {@link Color} object
+		 */
+		public static Color loadColor(RGB rgb)
+		{
+			return loadColor(String.format("#%02x%02x%02x", rgb.red, rgb.green, rgb.blue));
+		}
+
 		private static void disposeAll()
 		{
 			CACHE.values()
@@ -24,12 +24,13 @@ import org.eclipse.swt.widgets.*;
 
 import java.io.*;
 import java.sql.*;
-import java.text.*;
+import java.time.format.*;
 import java.util.*;
-import java.util.Date;
 import java.util.List;
+import java.util.concurrent.*;
 import java.util.stream.*;
 
+import baz.timekeeper.core.*;
 import baz.timekeeper.database.*;
 import baz.timekeeper.dialog.*;
 import baz.timekeeper.i18n.*;
@@ -42,19 +43,21 @@ import jhi.swtcommons.util.*;
  */
 public class Timekeeper extends RestartableApplication
 {
-	private static final String                  APP_ID         = "2414-6232-2575-1498";
-	private static final String                  UPDATE_ID      = "314";
-	private static final String                  VERSION_NUMBER = "x.xx.xx.xx";
-	public static final  boolean                 READ_ONLY_MODE = false;
-	private static final String                  UPDATER_URL    = "https://raw.githubusercontent.com/sebastian-raubach/timekeeper/master/installer/updates.xml";
-	private static final int                     WRITE_INTERVAL = 300000;
+	private static final String                   APP_ID              = "2414-6232-2575-1498";
+	private static final String                   UPDATE_ID           = "314";
+	private static final String                   VERSION_NUMBER      = "x.xx.xx.xx";
+	public static final  boolean                  READ_ONLY_MODE      = false;
+	private static final String                   UPDATER_URL         = "https://raw.githubusercontent.com/sebastian-raubach/timekeeper/master/installer/updates.xml";
+	private static final int                      WRITE_INTERVAL      = 300000;
+	private static final long                     PERSISTENCE_TIMEOUT = 10000;
 	/** Indicates whether the application is run form a jar or not */
-	public static        boolean                 WITHIN_JAR;
-	private static       Map<Timer, HistoryData> timers         = new HashMap<>();
-	private static       TimesheetPropertyReader propertyReader = new TimesheetPropertyReader();
-	private static       ScrolledComposite       scroll;
+	public static        boolean                  WITHIN_JAR;
+	private static       Map<TrackedTimer, Timer> timers              = new HashMap<>();
+	private static       TimesheetPropertyReader  propertyReader      = new TimesheetPropertyReader();
+	private static       ScrolledComposite        scroll;
 
-	private static DailyLog today = null;
+	private static TrackingSession session = null;
+	private static Ticker          ticker  = null;
 
 	public Timekeeper(Integer integer)
 	{
@@ -70,6 +73,8 @@ public class Timekeeper extends RestartableApplication
 		if (OSUtils.isUnix())
 			style = SWT.CLOSE | SWT.MIN | SWT.TITLE | SWT.RESIZE;
 
+		Environment.setReadOnly(READ_ONLY_MODE);
+
 		new Timekeeper(style);
 	}
 
@@ -88,6 +93,13 @@ public class Timekeeper extends RestartableApplication
 
 	private void loadContent(Shell shell) throws SQLException
 	{
+		/* Database writes happen in the background, their callbacks have to run on the UI thread */
+		PersistenceExecutor.getInstance().setCallbackExecutor(r ->
+		{
+			if (display != null && !display.isDisposed())
+				display.asyncExec(r);
+		});
+
 		/* Periodically save the values every 5 minutes */
 		display.timerExec(WRITE_INTERVAL, new Runnable()
 		{
@@ -96,7 +108,7 @@ public class Timekeeper extends RestartableApplication
 			{
 				if (display != null && !display.isDisposed())
 				{
-					display.asyncExec(() -> writeAll());
+					display.asyncExec(() -> session.flush());
 					display.timerExec(WRITE_INTERVAL, this);
 				}
 			}
@@ -108,6 +120,16 @@ public class Timekeeper extends RestartableApplication
 		scroll.setExpandVertical(true);
 		scroll.setExpandHorizontal(true);
 
+		/* A single ticker updates whichever timer is running */
+		if (ticker != null)
+			ticker.stop();
+		ticker = new Ticker(display, Timekeeper::tick);
+
+		/* The GUI only observes the tracking state */
+		session = new TrackingSession();
+		session.addListener(Timekeeper::onTimerChanged);
+		session.open();
+
 		addData();
 
 		addMenuBar(shell);
@@ -115,76 +137,69 @@ public class Timekeeper extends RestartableApplication
 		shell.pack(true);
 	}
 
-	private void writeAll()
+	/**
+	 * Called by the {@link Ticker} once per second while a timer is running
+	 */
+	private static void tick()
 	{
-		try
-		{
-			if (today != null)
-			{
-				today.setEnd(new Date(System.currentTimeMillis()));
-				today.write();
-			}
-		}
-		catch (SQLException e1)
-		{
-			e1.printStackTrace();
-		}
+		long now = Stopwatch.now();
 
-		for (Map.Entry<Timer, HistoryData> entry : timers.entrySet())
-		{
-			entry.getValue().setTime(entry.getKey().getInt());
-			try
-			{
-				entry.getValue().write();
-			}
-			catch (SQLException e1)
-			{
-				e1.printStackTrace();
-			}
-		}
+		session.tick();
+
+		for (TrackedTimer timer : session.getRunningTimers())
+			updateWidget(timer, now);
+
+		updateTitle(now);
 	}
 
-	private void addData() throws SQLException
+	/**
+	 * Called by the {@link TrackingSession} whenever a timer has been started, stopped or set
+	 */
+	private static void onTimerChanged(TrackedTimer timer)
 	{
-		DailyLog oldToday = DailyLog.getForToday();
+		long now = Stopwatch.now();
 
-		if (oldToday != null)
-			today = oldToday;
-		else if (today == null)
-			today = new DailyLog(null, new Date(System.currentTimeMillis()), new Date(System.currentTimeMillis()), new Date(System.currentTimeMillis()));
+		/* Keep the ticks aligned to the whole seconds of the running timer */
+		if (timer.isRunning())
+			ticker.start(timer.getOriginNanos());
+		else if (session.getRunningTimers().isEmpty())
+			ticker.stop();
 
-		/* Stop all existing timers */
-		writeAll();
-		for (Map.Entry<Timer, HistoryData> entry : timers.entrySet())
-		{
-			entry.getKey().stop();
-			try
-			{
-				entry.getValue().write();
-			}
-			catch (SQLException e1)
-			{
-				e1.printStackTrace();
-			}
-		}
+		updateWidget(timer, now);
+		updateTitle(now);
+	}
+
+	private static void updateWidget(TrackedTimer timer, long now)
+	{
+		Timer widget = timers.get(timer);
+
+		if (widget != null)
+			widget.update(now);
+	}
 
+	private static void updateTitle(long now)
+	{
+		if (scroll == null || scroll.isDisposed())
+			return;
+
+		long seconds = TimeUnit.NANOSECONDS.toSeconds(session.getTotalNanos(now));
+		scroll.getShell().setText(RB.getString(RB.APPLICATION_TITLE) + " [" + Durations.format(seconds) + "]");
+	}
+
+	private void addData() throws SQLException
+	{
 		/* Clear memory */
 		timers.clear();
+		ticker.stop();
 
 		for (Control control : scroll.getChildren())
 		{
 			control.dispose();
 		}
 
-		List<Project> projects = Project.getAll();
-
-		projects = projects.stream()
-						   .filter(Project::isVisibility)
-						   .collect(Collectors.toList());
+		List<TrackedTimer> trackedTimers = session.load();
 
-		Project.sortByPosition(projects);
-
-		if (CollectionUtils.isEmpty(projects))
+		if (CollectionUtils.isEmpty(trackedTimers))
 		{
 			openSettingsDialog();
 		}
@@ -193,27 +208,25 @@ public class Timekeeper extends RestartableApplication
 			Composite content = new Composite(scroll, SWT.NONE);
 			content.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
 
-			content.setLayout(new GridLayout(projects.size(), true));
+			content.setLayout(new GridLayout(trackedTimers.size(), true));
 			scroll.setContent(content);
 
-			Map<Project, HistoryData> today = HistoryData.getAllForToday();
-
-			boolean hasAutoStarted = false;
+			Map<TrackedTimer, Button> buttons = new HashMap<>();
 			Button button = null;
 
 			/* For each project, add a group */
-			for (Project project : projects)
+			for (TrackedTimer trackedTimer : trackedTimers)
 			{
 				/* Define the group */
 				Group group = new Group(content, SWT.NONE);
 				group.setLayout(new GridLayout(1, false));
 				group.setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
-				group.setText(project.getName());
+				group.setText(trackedTimer.getProject().getName());
 
 				/* Create the timer */
-				Timer timer = new Timer(group, SWT.TIME);
+				Timer timer = new Timer(group, SWT.TIME, trackedTimer);
 				timer.getWidget().setLayoutData(new GridData(SWT.FILL, SWT.TOP, true, false));
-				HistoryData data = new HistoryData(null, project, new Date(System.currentTimeMillis()), 0);
+				timer.update(Stopwatch.now());
 
 				/* Add the start button */
 				button = new Button(group, SWT.PUSH);
@@ -221,28 +234,21 @@ public class Timekeeper extends RestartableApplication
 				button.setText(RB.getString(RB.BUTTON_START));
 				button.addListener(SWT.Selection, timer);
 
-				if (today != null && today.containsKey(project))
-				{
-					timer.calendar.add(Calendar.SECOND, today.get(project).getTime());
-					data = today.get(project);
-					timer.update();
-				}
-
 				/* Add the timer to the list */
-				timers.put(timer, data);
-
-				if (project.isAutostart() && !hasAutoStarted)
-				{
-					timer.start();
-					/* We only allow one of them to auto-start */
-					hasAutoStarted = true;
-					button.forceFocus();
-				}
+				timers.put(trackedTimer, timer);
+				buttons.put(trackedTimer, button);
 			}
 
-			if (!hasAutoStarted && button != null)
+			/* We only allow one of them to auto-start */
+			TrackedTimer autostarted = session.autostart();
+
+			if (autostarted != null)
+				buttons.get(autostarted).forceFocus();
+			else if (button != null)
 				button.forceFocus();
 
+			updateTitle(Stopwatch.now());
+
 			scroll.setMinSize(content.computeSize(SWT.DEFAULT, SWT.DEFAULT));
 
 			scroll.layout(true, true);
@@ -266,21 +272,11 @@ public class Timekeeper extends RestartableApplication
 
 		item = new MenuItem(fileMenu, SWT.NONE);
 		item.setText(RB.getString(RB.MENU_FILE_STOP_ALL));
-		item.addListener(SWT.Selection, e -> timers.keySet().forEach(Timer::stop));
+		item.addListener(SWT.Selection, e -> session.stopAll());
 
 		item = new MenuItem(fileMenu, SWT.NONE);
 		item.setText(RB.getString(RB.MENU_FILE_HISTORY));
-		item.addListener(SWT.Selection, e ->
-		{
-			try
-			{
-				new HistoryDialog(shell).open();
-			}
-			catch (SQLException e1)
-			{
-				e1.printStackTrace();
-			}
-		});
+		item.addListener(SWT.Selection, e -> new HistoryDialog(shell).open());
 
 		item = new MenuItem(fileMenu, SWT.NONE);
 		item.setText(RB.getString(RB.MENU_FILE_SETTINGS));
@@ -326,15 +322,22 @@ public class Timekeeper extends RestartableApplication
 				e1.printStackTrace();
 			}
 
-			/* Update the main view */
-			try
-			{
-				addData();
-			}
-			catch (SQLException e1)
+			/* Stop all existing timers and save them */
+			session.stopAll();
+			session.flush();
+
+			/* Update the main view once the settings and timers have been saved */
+			PersistenceExecutor.getInstance().runAfterPending(() ->
 			{
-				e1.printStackTrace();
-			}
+				try
+				{
+					addData();
+				}
+				catch (SQLException e1)
+				{
+					e1.printStackTrace();
+				}
+			});
 		}
 		else
 		{
@@ -371,7 +374,8 @@ public class Timekeeper extends RestartableApplication
 	@Override
 	protected void onExit()
 	{
-		writeAll();
+		if (session != null)
+			session.close(PERSISTENCE_TIMEOUT);
 	}
 
 	@Override
@@ -417,92 +421,49 @@ public class Timekeeper extends RestartableApplication
 	}
 
 	/**
-	 * Timer is a simple wrapper for a {@link DateTime} object. It remembers the "running state" of the timer and keeps track of the time that has
-	 * already passed while this timer was running
+	 * Timer is a simple wrapper for a {@link DateTime} object that shows the time of a {@link TrackedTimer}. The tracking itself happens in the
+	 * {@link TrackingSession}.
 	 */
 	public static class Timer implements Listener
 	{
-		public static final SimpleDateFormat DAY      = new SimpleDateFormat("yyyy-MM-dd");
-		public static final SimpleDateFormat DAY_WEEK = new SimpleDateFormat("yyyy-MM-dd EEE");
-		public static final SimpleDateFormat TIME     = new SimpleDateFormat("HH:mm:ss");
-		public static final SimpleDateFormat DAY_TIME = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+		public static final DateTimeFormatter DAY_WEEK = DateTimeFormatter.ofPattern("yyyy-MM-dd EEE");
+		public static final DateTimeFormatter TIME     = DateTimeFormatter.ofPattern("HH:mm:ss");
+
+		/** The {@link DateTime} can only show a single day */
+		private static final long DAY_SECONDS = TimeUnit.DAYS.toSeconds(1);
 
-		/** Remember the state */
-		private boolean  running  = false;
 		/** The wrapped {@link DateTime} object */
-		private DateTime time;
-		/** The {@link Calendar} storing the current time count */
-		private Calendar calendar = Calendar.getInstance();
+		private final DateTime     time;
+		/** The {@link TrackedTimer} shown by this timer */
+		private final TrackedTimer trackedTimer;
 
-		/* Define a runnable that updates the DateTime and Shell title */
-		private Runnable runnable = new Runnable()
+		Timer(Composite composite, int style, TrackedTimer trackedTimer)
 		{
-			@Override
-			public void run()
-			{
-				if (running && !time.isDisposed())
-				{
-					/* Execute this runnable again after one second */
-					Display.getDefault().timerExec(1000, this);
-
-					/* Add a second to the calendar */
-					calendar.add(Calendar.SECOND, 1);
-
-					/* Set all the fields of the DateTime, as there's no "add" method */
-					update();
-
-					/* Get the total of all timers */
-					long total = timers.keySet()
-									   .stream()
-									   .mapToLong(t -> t.calendar.getTimeInMillis())
-									   .sum();
-
-					/* Set the shell title */
-					time.getShell().setText(RB.getString(RB.APPLICATION_TITLE) + " [" + TIME.format(total) + "]");
-				}
-			}
-		};
+			this.trackedTimer = trackedTimer;
 
-		Timer(Composite composite, int style)
-		{
 			time = new DateTime(composite, style);
 			time.setHours(0);
 			time.setMinutes(0);
 			time.setSeconds(0);
 
-			/* Initially set the calendar to 2000-01-01 00:00:00 */
-			try
-			{
-				calendar.setTimeInMillis(DAY_TIME.parse("2000-01-01 00:00:00").getTime());
-			}
-			catch (ParseException e)
-			{
-				e.printStackTrace();
-			}
-
 			time.addListener(SWT.Selection, (e) ->
 			{
-				calendar.set(Calendar.HOUR_OF_DAY, time.getHours());
-				calendar.set(Calendar.MINUTE, time.getMinutes());
-				calendar.set(Calendar.SECOND, time.getSeconds());
+				/* Keep any full days, the widget can't show them */
+				long days = trackedTimer.getElapsedSeconds(Stopwatch.now()) / DAY_SECONDS;
+				session.setSeconds(trackedTimer, days * DAY_SECONDS + time.getHours() * 3600 + time.getMinutes() * 60 + time.getSeconds());
 			});
 		}
 
-		void update()
+		void update(long now)
 		{
-			time.setHours(calendar.get(Calendar.HOUR_OF_DAY));
-			time.setMinutes(calendar.get(Calendar.MINUTE));
-			time.setSeconds(calendar.get(Calendar.SECOND));
-		}
+			if (time.isDisposed())
+				return;
 
-		int getInt()
-		{
-			return calendar.get(Calendar.SECOND) + calendar.get(Calendar.MINUTE) * 60 + calendar.get(Calendar.HOUR_OF_DAY) * 3600;
-		}
+			long seconds = trackedTimer.getElapsedSeconds(now);
 
-		long getLong()
-		{
-			return calendar.get(Calendar.SECOND) + calendar.get(Calendar.MINUTE) * 60 + calendar.get(Calendar.HOUR_OF_DAY) * 3600;
+			time.setHours((int) (seconds / 3600 % 24));
+			time.setMinutes((int) (seconds / 60 % 60));
+			time.setSeconds((int) (seconds % 60));
 		}
 
 		DateTime getWidget()
@@ -510,32 +471,12 @@ public class Timekeeper extends RestartableApplication
 			return time;
 		}
 
-		void start()
-		{
-			if (!running)
-			{
-				running = true;
-				Display.getDefault().timerExec(1000, runnable);
-
-				/* Stop all other timers */
-				timers.keySet()
-					  .stream()
-					  .filter(timer -> !Objects.equals(timer, this) && timer.running)
-					  .forEach(Timekeeper.Timer::stop);
-			}
-		}
-
-		void stop()
-		{
-			running = false;
-		}
-
 		@Override
 		public void handleEvent(Event event)
 		{
 			/* On button click, toggle state */
-			if (!running)
-				start();
+			if (!trackedTimer.isRunning())
+				session.start(trackedTimer);
 		}
 	}
 }
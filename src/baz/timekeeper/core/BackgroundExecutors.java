@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.core;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * {@link BackgroundExecutors} creates {@link ExecutorService}s for short-lived background work like loading data for a dialog. Virtual threads
+ * are used if the JVM supports them (Java 21+). The application still targets Java 8, so they're looked up via reflection, otherwise a small
+ * pool of daemon threads is used.
+ *
+ * @author Sebastian Raubach
+ */
+public class BackgroundExecutors
+{
+	/** The number of platform threads used if virtual threads aren't available */
+	private static final int FALLBACK_THREADS = 2;
+
+	/**
+	 * Creates a new {@link ExecutorService}. Shut it down once it's no longer needed.
+	 *
+	 * @param name The name of the threads
+	 * @return The {@link ExecutorService}
+	 */
+	public static ExecutorService create(String name)
+	{
+		try
+		{
+			/* Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory()) */
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, name + "-", 0L);
+			ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class).invoke(null, factory);
+		}
+		catch (ReflectiveOperationException | RuntimeException e)
+		{
+			/* No virtual threads */
+		}
+
+		AtomicInteger count = new AtomicInteger();
+
+		return Executors.newFixedThreadPool(FALLBACK_THREADS, r ->
+		{
+			Thread thread = new Thread(r, name + "-" + count.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+}
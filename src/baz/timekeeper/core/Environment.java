@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package baz.timekeeper.core;
+
+import java.io.*;
+
+/**
+ * {@link Environment} holds the settings the core and the database layer need to know about, so that they don't depend on the GUI. The GUI
+ * (or any other front end) configures them on startup, before the database is first used.
+ *
+ * @author Sebastian Raubach
+ */
+public class Environment
+{
+	/** The name of the folder in the user's home directory that holds the database and the properties */
+	public static final String DATA_FOLDER_NAME     = "baz";
+	/** System property that overrides the data folder, e.g. to run against a copy of the database */
+	public static final String DATA_FOLDER_PROPERTY = "timekeeper.data.dir";
+
+	private static volatile boolean readOnly   = false;
+	private static volatile File    dataFolder = getDefaultDataFolder();
+
+	/**
+	 * Returns <code>true</code> if nothing should be written to the database
+	 *
+	 * @return <code>true</code> if nothing should be written to the database
+	 */
+	public static boolean isReadOnly()
+	{
+		return readOnly;
+	}
+
+	public static void setReadOnly(boolean readOnly)
+	{
+		Environment.readOnly = readOnly;
+	}
+
+	/**
+	 * Returns the folder containing the database and the timer journal
+	 *
+	 * @return The data folder
+	 */
+	public static File getDataFolder()
+	{
+		return dataFolder;
+	}
+
+	private static File getDefaultDataFolder()
+	{
+		String override = System.getProperty(DATA_FOLDER_PROPERTY);
+
+		if (override != null && !override.isEmpty())
+			return new File(override);
+		else
+			return new File(System.getProperty("user.home"), "." + DATA_FOLDER_NAME);
+	}
+
+	/**
+	 * Sets the folder containing the database and the timer journal. Has no effect on a database that has already been opened.
+	 *
+	 * @param dataFolder The data folder
+	 */
+	public static void setDataFolder(File dataFolder)
+	{
+		Environment.dataFolder = dataFolder;
+	}
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.core;
+
+import java.util.*;
+
+/**
+ * {@link FenwickTree} (binary indexed tree) holds a fixed number of values and answers prefix and range sums in O(log n). Changing a value is
+ * O(log n) as well. Building it from existing values is O(n).
+ *
+ * @author Sebastian Raubach
+ */
+public class FenwickTree
+{
+	/** The partial sums, 1-based. Element i holds the sum of the (i & -i) values ending at i. */
+	private final long[] tree;
+
+	/**
+	 * Creates a {@link FenwickTree} of the given size with all values set to zero
+	 *
+	 * @param size The number of values
+	 */
+	public FenwickTree(int size)
+	{
+		tree = new long[size + 1];
+	}
+
+	/**
+	 * Creates a {@link FenwickTree} holding the given values
+	 *
+	 * @param values The values
+	 */
+	public FenwickTree(long[] values)
+	{
+		tree = new long[values.length + 1];
+		System.arraycopy(values, 0, tree, 1, values.length);
+
+		/* Push every partial sum up to its parent once */
+		for (int i = 1; i < tree.length; i++)
+		{
+			int parent = i + (i & -i);
+
+			if (parent < tree.length)
+				tree[parent] += tree[i];
+		}
+	}
+
+	/**
+	 * Returns the number of values
+	 *
+	 * @return The number of values
+	 */
+	public int size()
+	{
+		return tree.length - 1;
+	}
+
+	/**
+	 * Adds the given delta to a value
+	 *
+	 * @param index The index of the value (0-based)
+	 * @param delta The delta
+	 */
+	public void add(int index, long delta)
+	{
+		for (int i = index + 1; i < tree.length; i += i & -i)
+			tree[i] += delta;
+	}
+
+	/**
+	 * Sets a value
+	 *
+	 * @param index The index of the value (0-based)
+	 * @param value The new value
+	 */
+	public void set(int index, long value)
+	{
+		add(index, value - get(index));
+	}
+
+	/**
+	 * Returns a single value
+	 *
+	 * @param index The index of the value (0-based)
+	 * @return The value
+	 */
+	public long get(int index)
+	{
+		return sum(index, index);
+	}
+
+	/**
+	 * Returns the sum of the values from 0 to the given index
+	 *
+	 * @param index The last index (0-based, inclusive)
+	 * @return The sum
+	 */
+	public long sum(int index)
+	{
+		long result = 0;
+
+		for (int i = Math.min(index + 1, tree.length - 1); i > 0; i -= i & -i)
+			result += tree[i];
+
+		return result;
+	}
+
+	/**
+	 * Returns the sum of the values between the given indices
+	 *
+	 * @param from The first index (0-based, inclusive)
+	 * @param to   The last index (0-based, inclusive)
+	 * @return The sum
+	 */
+	public long sum(int from, int to)
+	{
+		if (from > to)
+			return 0;
+
+		return sum(to) - (from > 0 ? sum(from - 1) : 0);
+	}
+
+	/**
+	 * Returns a copy of all values
+	 *
+	 * @return The values
+	 */
+	public long[] toArray()
+	{
+		long[] values = Arrays.copyOf(tree, tree.length);
+
+		/* Undo the construction in reverse order */
+		for (int i = values.length - 1; i > 0; i--)
+		{
+			int parent = i + (i & -i);
+
+			if (parent < values.length)
+				values[parent] -= values[i];
+		}
+
+		return Arrays.copyOfRange(values, 1, values.length);
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package baz.timekeeper.core;
+
+import java.util.*;
+
+import baz.timekeeper.database.*;
+
+/**
+ * {@link HistoryDay} is a view of a single row of a {@link HistoryStore}. Views are cheap and can be created whenever they're needed, two
+ * views of the same row are equal.
+ *
+ * @author Sebastian Raubach
+ */
+public class HistoryDay
+{
+	private final HistoryStore store;
+	private final int          row;
+
+	public HistoryDay(HistoryStore store, int row)
+	{
+		this.store = store;
+		this.row = row;
+	}
+
+	public Date getDay()
+	{
+		return store.getDay(row);
+	}
+
+	/**
+	 * Returns the day as the number of days since 1970-01-01
+	 *
+	 * @return The epoch day
+	 */
+	public long getEpochDay()
+	{
+		return store.getEpochDay(row);
+	}
+
+	public int getRow()
+	{
+		return row;
+	}
+
+	/**
+	 * Returns <code>true</code> if the cells of this day are held in memory. Otherwise, all times are <code>0</code> until its page has been
+	 * loaded, see {@link HistoryStore#isLoaded(int)}.
+	 *
+	 * @return <code>true</code> if the cells of this day are held in memory
+	 */
+	public boolean isLoaded()
+	{
+		return store.isLoaded(row);
+	}
+
+	public long getTime(Project project)
+	{
+		int column = store.getColumn(project);
+
+		if (column < 0)
+			return 0;
+		else
+			return store.get(column, row);
+	}
+
+	/**
+	 * Returns the time of the given column, see {@link HistoryStore#getColumn(Project)}
+	 *
+	 * @param column The column
+	 * @return The time in seconds
+	 */
+	public int getTime(int column)
+	{
+		return store.get(column, row);
+	}
+
+	/**
+	 * Sets the time of the given {@link Project}
+	 *
+	 * @param project The {@link Project}
+	 * @param time    The time in seconds
+	 * @return <code>true</code> if this has changed the maximum total of all days
+	 */
+	public boolean setTime(Project project, int time)
+	{
+		int column = store.getColumn(project);
+
+		return column >= 0 && store.set(column, row, time);
+	}
+
+	public boolean hasChanged()
+	{
+		return store.isDirty(row);
+	}
+
+	public DailyLog getDailyLog()
+	{
+		return store.getDailyLog(row);
+	}
+
+	public int getTotal()
+	{
+		return store.getTotal(row);
+	}
+
+	public long getMaxTime()
+	{
+		return store.getMax(row);
+	}
+
+	@Override
+	public boolean equals(Object o)
+	{
+		if (this == o) return true;
+		if (o == null || getClass() != o.getClass()) return false;
+
+		HistoryDay that = (HistoryDay) o;
+
+		return row == that.row && store == that.store;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return 31 * System.identityHashCode(store) + row;
+	}
+}
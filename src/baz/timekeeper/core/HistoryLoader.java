@@ -0,0 +1,267 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.core;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import baz.timekeeper.database.*;
+
+/**
+ * {@link HistoryLoader} opens the {@link History} and loads the pages of its {@link HistoryStore} in the background. The first pages, i.e. the
+ * most recent weeks, are loaded right after the index. All other pages and the shared {@link RangeTotals} are loaded when they're
+ * requested.
+ * <p>
+ * All {@link Listener} methods are called via the callback {@link Executor}, e.g. <code>Display#asyncExec</code>, which is the thread that
+ * owns the {@link HistoryStore}. Once {@link #cancel()} has been called, no more callbacks are made.
+ *
+ * @author Sebastian Raubach
+ */
+public class HistoryLoader
+{
+	/** The number of pages that are loaded right after the index */
+	private static final int PREFETCH_PAGES = 4;
+
+	private final Executor        callbackExecutor;
+	private final Listener        listener;
+	private final ExecutorService executor  = BackgroundExecutors.create("timekeeper-history");
+	/** The pages that are currently being loaded */
+	private final Set<Integer>    requested = ConcurrentHashMap.newKeySet();
+
+	private volatile HistoryStore store;
+	private volatile boolean      cancelled            = false;
+	/** Only accessed on the callback thread */
+	private          boolean      rangeTotalsRequested = false;
+
+	/**
+	 * Creates a {@link HistoryLoader}
+	 *
+	 * @param callbackExecutor The {@link Executor} that runs the {@link Listener} methods
+	 * @param listener         The {@link Listener}
+	 */
+	public HistoryLoader(Executor callbackExecutor, Listener listener)
+	{
+		this.callbackExecutor = callbackExecutor;
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts loading the index and the most recent pages
+	 */
+	public void start()
+	{
+		submit(() ->
+		{
+			HistoryStore result = History.open();
+
+			store = result;
+			deliver(() -> listener.onOpened(result));
+
+			int pages = Math.min(PREFETCH_PAGES, result.getPageCount());
+
+			for (int i = 0; i < pages && !cancelled; i++)
+			{
+				if (requested.add(i))
+					load(result, i);
+			}
+
+			deliver(() -> listener.onPrefetched(result));
+		});
+	}
+
+	/**
+	 * Requests the shared {@link RangeTotals}, unless they've been requested before. They're built from the whole history unless they're
+	 * loaded already, so only request them once they're actually needed. Call this from the callback thread.
+	 */
+	public void requestRangeTotals()
+	{
+		if (cancelled || rangeTotalsRequested)
+			return;
+
+		rangeTotalsRequested = true;
+
+		/* Queued behind the pages that have been requested so far */
+		submit(() ->
+		{
+			/* The totals are an addition to the history, it's still usable without them */
+			try
+			{
+				RangeTotals totals = RangeTotals.getInstance();
+				deliver(() -> listener.onRangeTotalsLoaded(totals));
+			}
+			catch (SQLException e)
+			{
+				e.printStackTrace();
+			}
+		});
+	}
+
+	/**
+	 * Requests the page of the given row, unless it's already being loaded. Call this from the callback thread once {@link
+	 * Listener#onOpened(HistoryStore)} has been called.
+	 *
+	 * @param row The row
+	 */
+	public void request(int row)
+	{
+		HistoryStore current = store;
+		int index = row / HistoryStore.PAGE_SIZE;
+
+		if (current != null && !cancelled && requested.add(index))
+			submit(() -> load(current, index));
+	}
+
+	/**
+	 * Stops loading. Pages that are currently being loaded are discarded.
+	 */
+	public void cancel()
+	{
+		cancelled = true;
+		executor.shutdownNow();
+	}
+
+	private void load(HistoryStore store, int index)
+	{
+		HistoryStore.Page page;
+
+		try
+		{
+			page = store.loadPage(index);
+		}
+		catch (SQLException e)
+		{
+			/* The page stays requested, so that it isn't loaded again every time it's shown. The rest of the history is still usable. */
+			deliver(() -> listener.onPageFailed(index * HistoryStore.PAGE_SIZE, e));
+			return;
+		}
+
+		deliver(() ->
+		{
+			/* Pages are added on the thread that owns the store. If the store holds the page by now, the loaded copy is dropped. */
+			if (store.addPage(page))
+				listener.onPageLoaded(page.getFirstRow(), page.getRowCount());
+
+			/* Only allow requesting the page again once it has been added or dropped */
+			requested.remove(index);
+		});
+	}
+
+	private void submit(Step step)
+	{
+		try
+		{
+			executor.execute(() ->
+			{
+				try
+				{
+					if (!cancelled)
+						step.run();
+				}
+				catch (SQLException e)
+				{
+					/* Failures caused by the cancellation (interrupted waits for a connection) aren't reported */
+					if (!cancelled)
+						deliver(() -> listener.onFailed(e));
+				}
+			});
+		}
+		catch (RejectedExecutionException e)
+		{
+			/* Cancelled */
+		}
+	}
+
+	private void deliver(Runnable runnable)
+	{
+		if (cancelled)
+			return;
+
+		try
+		{
+			callbackExecutor.execute(() ->
+			{
+				if (!cancelled)
+					runnable.run();
+			});
+		}
+		catch (RuntimeException e)
+		{
+			/* The callback executor is gone, e.g. the display has been disposed */
+			if (!cancelled)
+				e.printStackTrace();
+		}
+	}
+
+	/**
+	 * A step of loading that runs on the background {@link ExecutorService}
+	 */
+	private interface Step
+	{
+		void run() throws SQLException;
+	}
+
+	/**
+	 * Receives the results of a {@link HistoryLoader}. All methods are called via the callback {@link Executor}.
+	 */
+	public interface Listener
+	{
+		/**
+		 * Called once the index of all days has been loaded, before any of the pages
+		 *
+		 * @param store The {@link HistoryStore}
+		 */
+		void onOpened(HistoryStore store);
+
+		/**
+		 * Called after a page has been added to the {@link HistoryStore}
+		 *
+		 * @param firstRow The first row of the page
+		 * @param rowCount The number of rows of the page
+		 */
+		void onPageLoaded(int firstRow, int rowCount);
+
+		/**
+		 * Called once the most recent pages have been loaded. From now on, pages are only loaded when they're requested.
+		 *
+		 * @param store The {@link HistoryStore}
+		 */
+		void onPrefetched(HistoryStore store);
+
+		/**
+		 * Called once the shared {@link RangeTotals} have been loaded, see {@link HistoryLoader#requestRangeTotals()}
+		 *
+		 * @param totals The {@link RangeTotals}
+		 */
+		void onRangeTotalsLoaded(RangeTotals totals);
+
+		/**
+		 * Called if a page couldn't be loaded. Its rows stay empty, but all other pages can still be loaded.
+		 *
+		 * @param firstRow The first row of the page
+		 * @param e        The {@link SQLException}
+		 */
+		void onPageFailed(int firstRow, SQLException e);
+
+		/**
+		 * Called if the {@link History} couldn't be opened
+		 *
+		 * @param e The {@link SQLException}
+		 */
+		void onFailed(SQLException e);
+	}
+}
@@ -0,0 +1,477 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package baz.timekeeper.core;
+
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.Date;
+
+import baz.timekeeper.database.*;
+
+/**
+ * {@link HistoryStore} keeps the history of all {@link Project}s in memory as a dense table of primitive values. Only the index of all days
+ * (their date and total) is loaded up front. The cells are loaded in pages of {@link #PAGE_SIZE} days via {@link #loadPage(int)} and {@link
+ * #addPage(Page)}, and only the most recently used pages are kept. Reading a row never loads its page, rows whose page isn't loaded (see
+ * {@link #isLoaded(int)}) are empty.
+ * <p>
+ * Within a page, each {@link Project} is a column holding one <code>int[]</code> of seconds, indexed by the day. Cells that have been edited
+ * are tracked in a {@link BitSet}. Pages with edits are never evicted, they're kept until the edits are taken via {@link #takeChanges()},
+ * so that all edits are written together and a page can't be reloaded without them.
+ * <p>
+ * A {@link HistoryStore} isn't thread-safe, it has to be used from a single thread. The only exception is {@link #loadPage(int)}, which
+ * allows loading pages in the background and handing them to {@link #addPage(Page)} afterwards.
+ *
+ * @author Sebastian Raubach
+ */
+public class HistoryStore
+{
+	/** The number of days per page */
+	public static final  int PAGE_SIZE          = 64;
+	/** The number of pages kept in memory */
+	private static final int MAX_RESIDENT_PAGES = 8;
+
+	private final List<Project>         projects;
+	private final Map<Project, Integer> columns = new HashMap<>();
+	private final PageSource            source;
+
+	/** The index of all days, most recent first */
+	private final long[] epochDays;
+	private final int[]  totals;
+
+	private final Map<Integer, Page> resident = new LinkedHashMap<Integer, Page>(MAX_RESIDENT_PAGES * 2, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, Page> eldest)
+		{
+			if (size() <= MAX_RESIDENT_PAGES)
+				return false;
+
+			/* Evict the least recently used page without edits. If all of them have edits, the store grows until they're taken. */
+			Iterator<Page> pages = values().iterator();
+
+			while (pages.hasNext())
+			{
+				if (pages.next().dirty.isEmpty())
+				{
+					pages.remove();
+					break;
+				}
+			}
+
+			return false;
+		}
+	};
+
+	/** The maximum of all day totals. Created on first use, then updated incrementally. */
+	private MaxTracker maxTotal;
+
+	/**
+	 * Creates a {@link HistoryStore}
+	 *
+	 * @param projects  The {@link Project}s in the order of their columns
+	 * @param epochDays The days, most recent first
+	 * @param totals    The total of each day
+	 * @param source    The {@link PageSource} that loads the cells
+	 */
+	public HistoryStore(List<Project> projects, long[] epochDays, int[] totals, PageSource source)
+	{
+		this.projects = new ArrayList<>(projects);
+		this.epochDays = epochDays;
+		this.totals = totals;
+		this.source = source;
+
+		for (int i = 0; i < projects.size(); i++)
+			columns.put(projects.get(i), i);
+	}
+
+	/**
+	 * Returns the column of the given {@link Project}
+	 *
+	 * @param project The {@link Project}
+	 * @return The column or <code>-1</code> if there is no column for the {@link Project}
+	 */
+	public int getColumn(Project project)
+	{
+		Integer column = columns.get(project);
+		return column == null ? -1 : column;
+	}
+
+	public List<Project> getProjects()
+	{
+		return Collections.unmodifiableList(projects);
+	}
+
+	public int getColumnCount()
+	{
+		return projects.size();
+	}
+
+	public int getRowCount()
+	{
+		return epochDays.length;
+	}
+
+	public int getPageCount()
+	{
+		return (epochDays.length + PAGE_SIZE - 1) / PAGE_SIZE;
+	}
+
+	public long getEpochDay(int row)
+	{
+		return epochDays[row];
+	}
+
+	public Date getDay(int row)
+	{
+		return Date.from(LocalDate.ofEpochDay(epochDays[row]).atStartOfDay(ZoneId.systemDefault()).toInstant());
+	}
+
+	/**
+	 * Returns the {@link DailyLog} of a row
+	 *
+	 * @param row The row
+	 * @return The {@link DailyLog} or <code>null</code> if there is none or the page of the row isn't loaded
+	 */
+	public DailyLog getDailyLog(int row)
+	{
+		Page page = getPage(row);
+		return page == null ? null : page.dailyLogs[row - page.firstRow];
+	}
+
+	/**
+	 * Returns the time of a cell
+	 *
+	 * @param column The column
+	 * @param row    The row
+	 * @return The time in seconds, <code>0</code> if the page of the row isn't loaded
+	 */
+	public int get(int column, int row)
+	{
+		Page page = getPage(row);
+		return page == null ? 0 : page.seconds[column][row - page.firstRow];
+	}
+
+	/**
+	 * Sets the time of a cell and marks it as edited. The row total and the maximum total are updated by the difference to the old value.
+	 *
+	 * @param column The column
+	 * @param row    The row
+	 * @param value  The time in seconds
+	 * @return <code>true</code> if this has changed the maximum of all row totals
+	 * @throws IllegalStateException Thrown if the page of the row isn't loaded
+	 */
+	public boolean set(int column, int row, int value)
+	{
+		MaxTracker tracker = getMaxTracker();
+		Page page = getPage(row);
+
+		if (page == null)
+			throw new IllegalStateException("The page of row " + row + " isn't loaded.");
+
+		int offset = row - page.firstRow;
+
+		int oldTotal = totals[row];
+		totals[row] += value - page.seconds[column][offset];
+		page.seconds[column][offset] = value;
+		page.dirty.set(offset * projects.size() + column);
+
+		return tracker.update(oldTotal, totals[row]);
+	}
+
+	/**
+	 * Returns the total time of all columns of a row
+	 *
+	 * @param row The row
+	 * @return The total time in seconds
+	 */
+	public int getTotal(int row)
+	{
+		return totals[row];
+	}
+
+	/**
+	 * Returns the maximum time of a single cell of a row
+	 *
+	 * @param row The row
+	 * @return The maximum time in seconds, <code>0</code> if the page of the row isn't loaded
+	 */
+	public int getMax(int row)
+	{
+		Page page = getPage(row);
+		int max = 0;
+
+		if (page == null)
+			return max;
+
+		for (int[] column : page.seconds)
+			max = Math.max(max, column[row - page.firstRow]);
+
+		return max;
+	}
+
+	/**
+	 * Returns the maximum total of all rows
+	 *
+	 * @return The maximum total in seconds
+	 */
+	public int getMaxTotal()
+	{
+		return getMaxTracker().getMax();
+	}
+
+	/**
+	 * Returns <code>true</code> if any cell of the given row has unsaved edits
+	 *
+	 * @param row The row
+	 * @return <code>true</code> if any cell of the given row has unsaved edits
+	 */
+	public boolean isDirty(int row)
+	{
+		/* Pages that aren't loaded can't have unsaved edits */
+		Page page = resident.get(row / PAGE_SIZE);
+
+		if (page == null)
+			return false;
+
+		int first = page.dirty.nextSetBit((row - page.firstRow) * projects.size());
+		return first >= 0 && first < (row - page.firstRow + 1) * projects.size();
+	}
+
+	/**
+	 * Returns <code>true</code> if any cell has unsaved edits
+	 *
+	 * @return <code>true</code> if any cell has unsaved edits
+	 */
+	public boolean isDirty()
+	{
+		for (Page page : resident.values())
+		{
+			if (!page.dirty.isEmpty())
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Returns the unsaved edits of all loaded pages as {@link HistoryData} and marks them as saved
+	 *
+	 * @return The edited cells
+	 */
+	public List<HistoryData> takeChanges()
+	{
+		List<HistoryData> result = new ArrayList<>();
+
+		for (Page page : resident.values())
+			result.addAll(takeChanges(page));
+
+		return result;
+	}
+
+	private List<HistoryData> takeChanges(Page page)
+	{
+		List<HistoryData> result = new ArrayList<>(page.dirty.cardinality());
+		int columnCount = projects.size();
+
+		for (int i = page.dirty.nextSetBit(0); i >= 0; i = page.dirty.nextSetBit(i + 1))
+		{
+			int offset = i / columnCount;
+			int column = i % columnCount;
+
+			result.add(new HistoryData(null, projects.get(column), (int) epochDays[page.firstRow + offset], page.seconds[column][offset]));
+		}
+
+		page.dirty.clear();
+
+		return result;
+	}
+
+	/**
+	 * Returns <code>true</code> if the page of the given row is held in memory, i.e. the row isn't empty
+	 *
+	 * @param row The row
+	 * @return <code>true</code> if the page of the given row is held in memory
+	 */
+	public boolean isLoaded(int row)
+	{
+		return resident.containsKey(row / PAGE_SIZE);
+	}
+
+	/**
+	 * Loads a page from the {@link PageSource} without adding it to the store. This is the only method that may be called from any thread, the
+	 * result has to be passed to {@link #addPage(Page)} on the thread that uses the store.
+	 *
+	 * @param index The index of the page
+	 * @return The loaded {@link Page}
+	 * @throws SQLException Thrown if the page can't be loaded
+	 */
+	public Page loadPage(int index) throws SQLException
+	{
+		Page page = new Page(index * PAGE_SIZE, Math.min(PAGE_SIZE, epochDays.length - index * PAGE_SIZE), projects.size());
+
+		/* Days are sorted most recent first, so the page covers the range from its last to its first day */
+		source.load(epochDays[page.firstRow + page.size - 1], epochDays[page.firstRow], page);
+
+		return page;
+	}
+
+	/**
+	 * Adds a page that has been loaded via {@link #loadPage(int)}. The page is dropped if the store already holds it, because the page that is
+	 * held may contain edits.
+	 *
+	 * @param page The {@link Page}
+	 * @return <code>true</code> if the page has been added
+	 */
+	public boolean addPage(Page page)
+	{
+		if (isLoaded(page.firstRow))
+			return false;
+
+		resident.put(page.firstRow / PAGE_SIZE, page);
+
+		return true;
+	}
+
+	/**
+	 * Returns the number of pages that are currently held in memory
+	 *
+	 * @return The number of pages that are currently held in memory
+	 */
+	public int getResidentPageCount()
+	{
+		return resident.size();
+	}
+
+	private MaxTracker getMaxTracker()
+	{
+		if (maxTotal == null)
+		{
+			maxTotal = new MaxTracker();
+
+			for (int total : totals)
+				maxTotal.add(total);
+		}
+
+		return maxTotal;
+	}
+
+	private Page getPage(int row)
+	{
+		/* Loading is up to the caller, see loadPage(int) */
+		return resident.get(row / PAGE_SIZE);
+	}
+
+	/**
+	 * Loads the cells of a range of days
+	 */
+	public interface PageSource
+	{
+		/**
+		 * Loads the cells of all days in the given range into the {@link PageSink}
+		 *
+		 * @param fromEpochDay The first day (inclusive)
+		 * @param toEpochDay   The last day (inclusive)
+		 * @param sink         The {@link PageSink}
+		 * @throws SQLException Thrown if the cells can't be loaded
+		 */
+		void load(long fromEpochDay, long toEpochDay, PageSink sink) throws SQLException;
+	}
+
+	/**
+	 * Receives the cells loaded by a {@link PageSource}
+	 */
+	public interface PageSink
+	{
+		void put(long epochDay, Project project, int seconds);
+
+		void putDailyLog(long epochDay, DailyLog dailyLog);
+	}
+
+	/**
+	 * A page of {@link #PAGE_SIZE} consecutive rows
+	 */
+	public class Page implements PageSink
+	{
+		private final int        firstRow;
+		private final int        size;
+		/** The seconds of each cell, indexed by column, then day */
+		private final int[][]    seconds;
+		private final DailyLog[] dailyLogs;
+		/** The edited cells, indexed by <code>day * columnCount + column</code> */
+		private final BitSet     dirty = new BitSet();
+
+		private Page(int firstRow, int size, int columnCount)
+		{
+			this.firstRow = firstRow;
+			this.size = size;
+			this.seconds = new int[columnCount][size];
+			this.dailyLogs = new DailyLog[size];
+		}
+
+		public int getFirstRow()
+		{
+			return firstRow;
+		}
+
+		public int getRowCount()
+		{
+			return size;
+		}
+
+		@Override
+		public void put(long epochDay, Project project, int value)
+		{
+			int offset = getOffset(epochDay);
+			int column = getColumn(project);
+
+			if (offset >= 0 && column >= 0)
+				seconds[column][offset] = value;
+		}
+
+		@Override
+		public void putDailyLog(long epochDay, DailyLog dailyLog)
+		{
+			int offset = getOffset(epochDay);
+
+			if (offset >= 0)
+				dailyLogs[offset] = dailyLog;
+		}
+
+		/**
+		 * Binary search for the given day, keeping in mind that the days are sorted in descending order
+		 */
+		private int getOffset(long epochDay)
+		{
+			int low = firstRow;
+			int high = firstRow + size - 1;
+
+			while (low <= high)
+			{
+				int mid = (low + high) >>> 1;
+
+				if (epochDays[mid] > epochDay)
+					low = mid + 1;
+				else if (epochDays[mid] < epochDay)
+					high = mid - 1;
+				else
+					return mid - firstRow;
+			}
+
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package baz.timekeeper.core;
+
+import java.util.*;
+
+/**
+ * {@link MaxTracker} keeps track of the maximum of a changing collection of values. The values are counted in a sorted multiset, so unlike a
+ * running maximum it stays correct when the current maximum decreases or is removed. The maximum itself is cached, reading it is O(1) and
+ * updating a value is O(log n) in the number of distinct values.
+ *
+ * @author Sebastian Raubach
+ */
+public class MaxTracker
+{
+	private final TreeMap<Integer, Integer> counts = new TreeMap<>();
+	private       int                       max    = 0;
+
+	/**
+	 * Adds a value
+	 *
+	 * @param value The value
+	 */
+	public void add(int value)
+	{
+		counts.merge(value, 1, Integer::sum);
+
+		if (counts.size() == 1 || value > max)
+			max = value;
+	}
+
+	/**
+	 * Removes one occurrence of a value that has previously been added
+	 *
+	 * @param value The value
+	 */
+	public void remove(int value)
+	{
+		Integer count = counts.get(value);
+
+		if (count == null)
+			return;
+
+		if (count == 1)
+		{
+			counts.remove(value);
+
+			if (value == max)
+				max = counts.isEmpty() ? 0 : counts.lastKey();
+		}
+		else
+		{
+			counts.put(value, count - 1);
+		}
+	}
+
+	/**
+	 * Replaces one occurrence of a value with another one
+	 *
+	 * @param oldValue The value to replace
+	 * @param newValue The new value
+	 * @return <code>true</code> if the maximum has changed
+	 */
+	public boolean update(int oldValue, int newValue)
+	{
+		if (oldValue == newValue)
+			return false;
+
+		int oldMax = max;
+
+		remove(oldValue);
+		add(newValue);
+
+		return max != oldMax;
+	}
+
+	/**
+	 * Returns the maximum of all values
+	 *
+	 * @return The maximum or <code>0</code> if there are no values
+	 */
+	public int getMax()
+	{
+		return max;
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.core;
+
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+import baz.timekeeper.database.*;
+
+/**
+ * {@link RangeTotals} answers the total time per {@link Project} for arbitrary ranges of days, e.g. a billing period from the 17th to the 16th
+ * or the last 90 days, in O(log n). Unlike {@link Rollups}, the ranges don't have to be aligned to weeks or months.
+ * <p>
+ * There's one {@link FenwickTree} per {@link Project}, indexed by the number of days since the first day of the history. The trees are built
+ * from the time of every project and day (see {@link History#openRangeTotals()}) when the shared instance is first requested via {@link
+ * #getInstance()}, so only request it once a total is actually needed. Afterwards, they're kept up to date:
+ * {@link HistoryData} reports every write via {@link #onCellChanged(Project, long, int)} once it has been committed. Edits that haven't been
+ * saved yet, e.g. in the {@link HistoryStore}, aren't included.
+ * <p>
+ * All methods are thread-safe.
+ *
+ * @author Sebastian Raubach
+ */
+public class RangeTotals
+{
+	/** The number of days that are added to the end when a day after the last one is set, so that growing is rare */
+	private static final int GROWTH = 366;
+
+	private static RangeTotals INSTANCE;
+
+	private final Map<Project, FenwickTree> trees = new HashMap<>();
+	private       long                      firstEpochDay;
+	private       int                       size;
+
+	/**
+	 * Creates {@link RangeTotals} covering the given days
+	 *
+	 * @param fromEpochDay The first day (inclusive)
+	 * @param toEpochDay   The last day (inclusive)
+	 * @param values       The time in seconds per {@link Project} and day, indexed by the number of days since the first day. Every array
+	 *                     has to cover all days.
+	 */
+	public RangeTotals(long fromEpochDay, long toEpochDay, Map<Project, long[]> values)
+	{
+		this.firstEpochDay = fromEpochDay;
+		this.size = (int) Math.max(0, toEpochDay - fromEpochDay + 1);
+
+		/* Building the trees from the values is O(n) */
+		for (Map.Entry<Project, long[]> entry : values.entrySet())
+			trees.put(entry.getKey(), new FenwickTree(entry.getValue()));
+	}
+
+	/**
+	 * Returns the shared {@link RangeTotals}, loading the whole history if necessary
+	 *
+	 * @return The shared {@link RangeTotals}
+	 * @throws SQLException Thrown if the history can't be loaded
+	 */
+	public static synchronized RangeTotals getInstance() throws SQLException
+	{
+		if (INSTANCE == null)
+			INSTANCE = History.openRangeTotals();
+
+		return INSTANCE;
+	}
+
+	/**
+	 * Drops the shared {@link RangeTotals}, the next call to {@link #getInstance()} loads them again
+	 */
+	public static synchronized void invalidate()
+	{
+		INSTANCE = null;
+	}
+
+	/**
+	 * Updates the shared {@link RangeTotals}, if they have been loaded, after a cell of the history has changed
+	 *
+	 * @param project  The {@link Project}
+	 * @param epochDay The day
+	 * @param seconds  The new time in seconds
+	 */
+	public static synchronized void onCellChanged(Project project, long epochDay, int seconds)
+	{
+		if (INSTANCE != null)
+			INSTANCE.set(project, epochDay, seconds);
+	}
+
+	/**
+	 * Removes a {@link Project} from the shared {@link RangeTotals}, if they have been loaded
+	 *
+	 * @param project The {@link Project}
+	 */
+	public static synchronized void onProjectRemoved(Project project)
+	{
+		if (INSTANCE != null)
+			INSTANCE.remove(project);
+	}
+
+	/**
+	 * Returns the total number of seconds tracked per {@link Project} between the given days
+	 *
+	 * @param from The first day (inclusive)
+	 * @param to   The last day (inclusive)
+	 * @return The total number of seconds per {@link Project}. {@link Project}s without any time aren't included.
+	 */
+	public Map<Project, Long> getTotals(LocalDate from, LocalDate to)
+	{
+		return getTotals(from.toEpochDay(), to.toEpochDay());
+	}
+
+	/**
+	 * Returns the total number of seconds tracked per {@link Project} between the given days
+	 *
+	 * @param fromEpochDay The first day (inclusive)
+	 * @param toEpochDay   The last day (inclusive)
+	 * @return The total number of seconds per {@link Project}. {@link Project}s without any time aren't included.
+	 */
+	public synchronized Map<Project, Long> getTotals(long fromEpochDay, long toEpochDay)
+	{
+		Map<Project, Long> result = new HashMap<>();
+
+		for (Map.Entry<Project, FenwickTree> entry : trees.entrySet())
+		{
+			long total = sum(entry.getValue(), fromEpochDay, toEpochDay);
+
+			if (total != 0)
+				result.put(entry.getKey(), total);
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the total number of seconds tracked for the given {@link Project} between the given days
+	 *
+	 * @param project      The {@link Project}
+	 * @param fromEpochDay The first day (inclusive)
+	 * @param toEpochDay   The last day (inclusive)
+	 * @return The total number of seconds
+	 */
+	public synchronized long getTotal(Project project, long fromEpochDay, long toEpochDay)
+	{
+		FenwickTree tree = trees.get(project);
+
+		return tree == null ? 0 : sum(tree, fromEpochDay, toEpochDay);
+	}
+
+	/**
+	 * Sets the time of a {@link Project} on a day
+	 *
+	 * @param project  The {@link Project}
+	 * @param epochDay The day
+	 * @param seconds  The time in seconds
+	 */
+	public synchronized void set(Project project, long epochDay, int seconds)
+	{
+		if (project == null)
+			return;
+
+		FenwickTree tree = trees.get(project);
+
+		if (tree == null && seconds == 0)
+			return;
+
+		/* Nothing has been tracked at all so far */
+		if (size == 0)
+			firstEpochDay = epochDay;
+
+		if (epochDay < firstEpochDay || epochDay >= firstEpochDay + size)
+		{
+			resize(Math.min(epochDay, firstEpochDay), Math.max(epochDay + GROWTH, firstEpochDay + size - 1));
+			tree = trees.get(project);
+		}
+
+		if (tree == null)
+		{
+			tree = new FenwickTree(size);
+			trees.put(project, tree);
+		}
+
+		tree.set((int) (epochDay - firstEpochDay), seconds);
+	}
+
+	/**
+	 * Removes all times of a {@link Project}
+	 *
+	 * @param project The {@link Project}
+	 */
+	public synchronized void remove(Project project)
+	{
+		trees.remove(project);
+	}
+
+	private long sum(FenwickTree tree, long fromEpochDay, long toEpochDay)
+	{
+		/* Days outside of the covered range don't have any time */
+		long from = Math.max(fromEpochDay, firstEpochDay) - firstEpochDay;
+		long to = Math.min(toEpochDay, firstEpochDay + size - 1) - firstEpochDay;
+
+		return from > to ? 0 : tree.sum((int) from, (int) to);
+	}
+
+	/**
+	 * Rebuilds all trees so that they cover the given days
+	 */
+	private void resize(long fromEpochDay, long toEpochDay)
+	{
+		int newSize = (int) (toEpochDay - fromEpochDay + 1);
+		int shift = (int) (firstEpochDay - fromEpochDay);
+
+		for (Map.Entry<Project, FenwickTree> entry : trees.entrySet())
+		{
+			long[] values = new long[newSize];
+			System.arraycopy(entry.getValue().toArray(), 0, values, shift, size);
+			entry.setValue(new FenwickTree(values));
+		}
+
+		firstEpochDay = fromEpochDay;
+		size = newSize;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package baz.timekeeper.core;
+
+import java.util.concurrent.*;
+
+/**
+ * {@link Stopwatch} measures elapsed time based on the monotonic {@link System#nanoTime()} clock. It only stores when it was started and how
+ * much time had been accumulated before that, the elapsed time is calculated when it's requested. This means it doesn't drift if nobody asks
+ * for a while, e.g. because the UI thread is busy or the machine was suspended.
+ *
+ * @author Sebastian Raubach
+ */
+public class Stopwatch
+{
+	private long    startNanos       = 0;
+	private long    accumulatedNanos = 0;
+	private boolean running          = false;
+
+	public static long now()
+	{
+		return System.nanoTime();
+	}
+
+	public boolean isRunning()
+	{
+		return running;
+	}
+
+	/**
+	 * Starts the {@link Stopwatch}. Does nothing if it's already running.
+	 *
+	 * @param now The current time as returned by {@link #now()}
+	 */
+	public void start(long now)
+	{
+		if (!running)
+		{
+			startNanos = now;
+			running = true;
+		}
+	}
+
+	/**
+	 * Stops the {@link Stopwatch}. Does nothing if it isn't running.
+	 *
+	 * @param now The current time as returned by {@link #now()}
+	 */
+	public void stop(long now)
+	{
+		if (running)
+		{
+			accumulatedNanos += now - startNanos;
+			running = false;
+		}
+	}
+
+	/**
+	 * Returns the elapsed time in nanoseconds
+	 *
+	 * @param now The current time as returned by {@link #now()}
+	 * @return The elapsed time in nanoseconds
+	 */
+	public long getElapsedNanos(long now)
+	{
+		return running ? accumulatedNanos + now - startNanos : accumulatedNanos;
+	}
+
+	/**
+	 * Returns the elapsed time in whole seconds
+	 *
+	 * @param now The current time as returned by {@link #now()}
+	 * @return The elapsed time in whole seconds
+	 */
+	public long getElapsedSeconds(long now)
+	{
+		return TimeUnit.NANOSECONDS.toSeconds(getElapsedNanos(now));
+	}
+
+	/**
+	 * Sets the elapsed time. If the {@link Stopwatch} is running, it keeps running from the new value.
+	 *
+	 * @param seconds The elapsed time in seconds
+	 * @param now     The current time as returned by {@link #now()}
+	 */
+	public void setElapsedSeconds(long seconds, long now)
+	{
+		accumulatedNanos = TimeUnit.SECONDS.toNanos(seconds);
+		startNanos = now;
+	}
+
+	/**
+	 * Returns the start of the current run, used to align updates to whole seconds of the elapsed time
+	 *
+	 * @return The value of {@link #now()} at which the current run would have started if the elapsed time had been accumulated in it
+	 */
+	public long getOriginNanos()
+	{
+		return startNanos - accumulatedNanos;
+	}
+}
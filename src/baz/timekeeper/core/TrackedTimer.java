@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package baz.timekeeper.core;
+
+import baz.timekeeper.database.*;
+
+/**
+ * {@link TrackedTimer} is the time tracked for a single {@link Project} today. Its state is changed via the {@link TrackingSession} it belongs
+ * to.
+ *
+ * @author Sebastian Raubach
+ */
+public class TrackedTimer
+{
+	private final Project     project;
+	private final HistoryData data;
+	private final Stopwatch   stopwatch = new Stopwatch();
+
+	TrackedTimer(Project project, HistoryData data)
+	{
+		this.project = project;
+		this.data = data;
+	}
+
+	public Project getProject()
+	{
+		return project;
+	}
+
+	public HistoryData getData()
+	{
+		return data;
+	}
+
+	public boolean isRunning()
+	{
+		return stopwatch.isRunning();
+	}
+
+	/**
+	 * Returns the elapsed time in nanoseconds
+	 *
+	 * @param now The current time as returned by {@link Stopwatch#now()}
+	 * @return The elapsed time in nanoseconds
+	 */
+	public long getElapsedNanos(long now)
+	{
+		return stopwatch.getElapsedNanos(now);
+	}
+
+	/**
+	 * Returns the elapsed time in whole seconds
+	 *
+	 * @param now The current time as returned by {@link Stopwatch#now()}
+	 * @return The elapsed time in whole seconds
+	 */
+	public long getElapsedSeconds(long now)
+	{
+		return stopwatch.getElapsedSeconds(now);
+	}
+
+	/**
+	 * Returns the current elapsed time in seconds as stored in the database
+	 *
+	 * @return The current elapsed time in seconds
+	 */
+	public int getInt()
+	{
+		return (int) Math.min(Integer.MAX_VALUE, stopwatch.getElapsedSeconds(Stopwatch.now()));
+	}
+
+	/**
+	 * Returns the origin whose whole seconds the displayed value changes on, see {@link Stopwatch#getOriginNanos()}
+	 *
+	 * @return The origin in nanoseconds
+	 */
+	public long getOriginNanos()
+	{
+		return stopwatch.getOriginNanos();
+	}
+
+	Stopwatch getStopwatch()
+	{
+		return stopwatch;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "TrackedTimer{" +
+				"project=" + project +
+				", running=" + stopwatch.isRunning() +
+				'}';
+	}
+}
@@ -0,0 +1,31 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package baz.timekeeper.core;
+
+/**
+ * {@link TrackingListener} is notified by the {@link TrackingSession} whenever the state of one of its {@link TrackedTimer}s changes
+ *
+ * @author Sebastian Raubach
+ */
+public interface TrackingListener
+{
+	/**
+	 * Called after the given {@link TrackedTimer} has been started or stopped or its time has been set
+	 *
+	 * @param timer The {@link TrackedTimer}
+	 */
+	void onTimerChanged(TrackedTimer timer);
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package baz.timekeeper.core;
+
+import java.io.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+import baz.timekeeper.database.*;
+
+/**
+ * {@link TrackingSession} is the state machine behind the timers of today. It loads the visible {@link Project}s, makes sure only one
+ * {@link TrackedTimer} is running at a time, keeps the total of all timers up to date, journals every tick and hands the results over to the
+ * {@link PersistenceExecutor}. It knows nothing about the GUI, front ends observe it via {@link TrackingListener}s.
+ * <p>
+ * A {@link TrackingSession} isn't thread-safe, all methods have to be called from the same thread (the UI thread in the GUI).
+ *
+ * @author Sebastian Raubach
+ */
+public class TrackingSession
+{
+	private final List<TrackedTimer>     timers    = new ArrayList<>();
+	/** The timers that are currently running, there's usually just one */
+	private final Set<TrackedTimer>      running   = new HashSet<>();
+	private final List<TrackingListener> listeners = new CopyOnWriteArrayList<>();
+	/** Used to coalesce flushes that haven't been executed yet */
+	private final Object                 flushKey  = new Object();
+
+	/** The total time of all timers that aren't running, maintained incrementally */
+	private long         idleNanos = 0;
+	private DailyLog     today     = null;
+	private TimerJournal journal   = null;
+
+	public void addListener(TrackingListener listener)
+	{
+		listeners.add(listener);
+	}
+
+	public void removeListener(TrackingListener listener)
+	{
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Opens the {@link TimerJournal} and restores anything that has been tracked after the last flush before a crash. Call this once before
+	 * {@link #load()}.
+	 */
+	public void open()
+	{
+		try
+		{
+			journal = TimerJournal.getInstance();
+			journal.replay();
+		}
+		catch (IOException | SQLException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * (Re-)creates the {@link TrackedTimer}s of all visible {@link Project}s in the order of their position, initialised with today's times.
+	 * Stop the running timers before calling this, otherwise their time since the last flush is lost.
+	 *
+	 * @return The {@link TrackedTimer}s, empty if there are no visible {@link Project}s
+	 * @throws SQLException Thrown if the data can't be read from the database
+	 */
+	public List<TrackedTimer> load() throws SQLException
+	{
+		DailyLog oldToday = DailyLog.getForToday();
+
+		if (oldToday != null)
+			today = oldToday;
+		else if (today == null)
+		{
+			long now = Instant.now().getEpochSecond();
+			today = new DailyLog(null, (int) LocalDate.now().toEpochDay(), now, now);
+		}
+
+		timers.clear();
+		running.clear();
+		idleNanos = 0;
+
+		List<Project> projects = Project.getAll()
+										.stream()
+										.filter(Project::isVisibility)
+										.collect(Collectors.toList());
+
+		Project.sortByPosition(projects);
+
+		Map<Project, HistoryData> todaysData = HistoryData.getAllForToday();
+		long now = Stopwatch.now();
+
+		for (Project project : projects)
+		{
+			HistoryData data = todaysData.get(project);
+
+			if (data == null)
+				data = new HistoryData(null, project, (int) LocalDate.now().toEpochDay(), 0);
+
+			TrackedTimer timer = new TrackedTimer(project, data);
+			timer.getStopwatch().setElapsedSeconds(data.getTime(), now);
+			idleNanos += timer.getElapsedNanos(now);
+
+			timers.add(timer);
+		}
+
+		return getTimers();
+	}
+
+	/**
+	 * Starts the first {@link TrackedTimer} whose {@link Project} is set to auto-start. Only one of them is allowed to auto-start.
+	 *
+	 * @return The {@link TrackedTimer} that has been started or <code>null</code>
+	 */
+	public TrackedTimer autostart()
+	{
+		for (TrackedTimer timer : timers)
+		{
+			if (timer.getProject().isAutostart())
+			{
+				start(timer);
+				return timer;
+			}
+		}
+
+		return null;
+	}
+
+	public List<TrackedTimer> getTimers()
+	{
+		return Collections.unmodifiableList(timers);
+	}
+
+	public Set<TrackedTimer> getRunningTimers()
+	{
+		return Collections.unmodifiableSet(running);
+	}
+
+	/**
+	 * Starts the given {@link TrackedTimer} and stops all others
+	 *
+	 * @param timer The {@link TrackedTimer}
+	 */
+	public void start(TrackedTimer timer)
+	{
+		if (timer.isRunning())
+			return;
+
+		long now = Stopwatch.now();
+
+		idleNanos -= timer.getElapsedNanos(now);
+		timer.getStopwatch().start(now);
+		running.add(timer);
+
+		journal(TimerJournal.EventType.START, timer);
+		fireChanged(timer);
+
+		/* Stop all other timers */
+		new ArrayList<>(running).stream()
+								.filter(t -> t != timer)
+								.forEach(this::stop);
+	}
+
+	/**
+	 * Stops the given {@link TrackedTimer} and writes its time, which records the {@link Interval} it has been running for since the last flush
+	 *
+	 * @param timer The {@link TrackedTimer}
+	 */
+	public void stop(TrackedTimer timer)
+	{
+		if (!timer.isRunning())
+			return;
+
+		long now = Stopwatch.now();
+
+		timer.getStopwatch().stop(now);
+		idleNanos += timer.getElapsedNanos(now);
+		running.remove(timer);
+
+		journal(TimerJournal.EventType.STOP, timer);
+
+		/* Otherwise the interval would only end with the next regular flush */
+		flushObjects();
+
+		fireChanged(timer);
+	}
+
+	/**
+	 * Stops all running {@link TrackedTimer}s
+	 */
+	public void stopAll()
+	{
+		new ArrayList<>(running).forEach(this::stop);
+	}
+
+	/**
+	 * Sets the elapsed time of the given {@link TrackedTimer}. A running timer keeps running from the new value.
+	 *
+	 * @param timer   The {@link TrackedTimer}
+	 * @param seconds The elapsed time in seconds
+	 */
+	public void setSeconds(TrackedTimer timer, long seconds)
+	{
+		long now = Stopwatch.now();
+
+		if (!timer.isRunning())
+			idleNanos += TimeUnit.SECONDS.toNanos(seconds) - timer.getElapsedNanos(now);
+
+		timer.getStopwatch().setElapsedSeconds(seconds, now);
+
+		/* Otherwise replaying the journal would restore the value from before the correction */
+		journal(TimerJournal.EventType.SET, timer);
+		fireChanged(timer);
+	}
+
+	/**
+	 * Returns the total time of all {@link TrackedTimer}s. Only the running timers are looked at, the rest is maintained incrementally.
+	 *
+	 * @param now The current time as returned by {@link Stopwatch#now()}
+	 * @return The total time in nanoseconds
+	 */
+	public long getTotalNanos(long now)
+	{
+		long total = idleNanos;
+
+		for (TrackedTimer timer : running)
+			total += timer.getElapsedNanos(now);
+
+		return total;
+	}
+
+	/**
+	 * Records the current time of all running {@link TrackedTimer}s in the {@link TimerJournal}. Call this once per second.
+	 */
+	public void tick()
+	{
+		for (TrackedTimer timer : running)
+			journal(TimerJournal.EventType.TICK, timer);
+	}
+
+	/**
+	 * Hands the current times over to the persistence thread. Once they're committed, the journal entries up to now are no longer needed and
+	 * are removed on the persistence thread.
+	 */
+	public void flush()
+	{
+		flushObjects();
+	}
+
+	private List<DatabaseObject> flushObjects()
+	{
+		for (TrackedTimer timer : timers)
+			timer.getData().setTime(timer.getInt());
+
+		/* Only extend the daily log if any time has been tracked since the last flush */
+		if (today != null && timers.stream().anyMatch(t -> t.getData().isDirty()))
+			today.setEnd(Instant.now().getEpochSecond());
+
+		List<DatabaseObject> objects = timers.stream()
+											 .map(TrackedTimer::getData)
+											 .collect(Collectors.toList());
+		objects.add(today);
+
+		long mark = journal != null ? journal.mark() : 0;
+
+		/* Compact right after the commit rather than in a UI callback, which never runs if the application exits right afterwards */
+		PersistenceExecutor.getInstance().submit(flushKey, () -> FlushCoordinator.flush(objects), () ->
+		{
+			/* Objects that are still dirty haven't been written, so their journal entries are kept */
+			if (journal != null && objects.stream().noneMatch(o -> o != null && o.isDirty()))
+				journal.compact(mark);
+		}, null);
+
+		return objects;
+	}
+
+	/**
+	 * Stops all timers, writes everything and closes the journal and the database
+	 *
+	 * @param timeoutMillis The maximum time to wait for pending writes
+	 */
+	public void close(long timeoutMillis)
+	{
+		/* Stopping the timers records their intervals */
+		stopAll();
+		List<DatabaseObject> objects = flushObjects();
+
+		/* Wait for all pending writes, then close the pooled database connections */
+		boolean drained = PersistenceExecutor.shutdown(timeoutMillis);
+
+		/* Everything in the journal has been committed unless the final flush failed, in which case the journal is replayed on the next start */
+		if (drained && journal != null && objects.stream().noneMatch(o -> o != null && o.isDirty()))
+			journal.compact(journal.mark());
+
+		TimerJournal.close();
+		Database.shutdown();
+	}
+
+	private void journal(TimerJournal.EventType type, TrackedTimer timer)
+	{
+		if (journal != null)
+			journal.record(type, timer.getData(), timer.getInt());
+	}
+
+	private void fireChanged(TrackedTimer timer)
+	{
+		for (TrackingListener listener : listeners)
+			listener.onTimerChanged(timer);
+	}
+}
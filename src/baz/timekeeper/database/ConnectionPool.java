@@ -0,0 +1,264 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.database;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * {@link ConnectionPool} keeps the SQLite connections of the application open for its whole lifetime. There is exactly one writer {@link
+ * Connection}, guarded by a (reentrant) lock, and a small number of reader {@link Connection}s that are opened on demand and then reused.
+ * <p>
+ * All connections are configured once when they are opened, which means that the journal mode, synchronous mode and page cache size don't
+ * have to be set per statement.
+ *
+ * @author Sebastian Raubach
+ */
+class ConnectionPool
+{
+	/** The time to wait for a free connection before giving up */
+	private static final long TIMEOUT_SECONDS = 30;
+	/** The SQLite busy timeout in milliseconds */
+	private static final int  BUSY_TIMEOUT    = 5000;
+	/** The page cache size in KiB (negative values are interpreted as KiB by SQLite) */
+	private static final int  CACHE_SIZE_KIB  = 8192;
+
+	private final String url;
+	private final int    maxReaders;
+
+	private final BlockingQueue<Connection> idleReaders;
+	private final List<Connection>          allReaders  = new CopyOnWriteArrayList<>();
+	private final AtomicInteger             busyReaders = new AtomicInteger();
+	private final ReentrantLock             writerLock  = new ReentrantLock(true);
+	private       Connection                writer;
+
+	/** The actions of the current transaction of the writer, see {@link Database#afterCommit(Runnable)}. Only used by the thread holding it. */
+	final List<Runnable> afterCommit = new ArrayList<>();
+	final List<Runnable> onRollback  = new ArrayList<>();
+
+	private final AtomicLong readerLeases = new AtomicLong();
+	private final AtomicLong writerLeases = new AtomicLong();
+	private final AtomicLong waits        = new AtomicLong();
+
+	private volatile boolean closed = false;
+
+	ConnectionPool(String url, int maxReaders)
+	{
+		this.url = url;
+		this.maxReaders = maxReaders;
+		this.idleReaders = new ArrayBlockingQueue<>(maxReaders);
+	}
+
+	/**
+	 * Borrows a reader {@link Connection}. A new one is opened if all existing readers are busy and the pool hasn't reached its maximum size
+	 * yet, otherwise the calling thread waits for a reader to be returned.
+	 *
+	 * @return The reader {@link Connection}
+	 * @throws SQLException Thrown if the pool has been closed, no connection could be opened or the wait timed out
+	 */
+	Connection acquireReader()
+		throws SQLException
+	{
+		ensureOpen();
+
+		Connection connection = idleReaders.poll();
+
+		if (connection == null)
+		{
+			synchronized (allReaders)
+			{
+				if (allReaders.size() < maxReaders)
+				{
+					connection = open(true);
+					allReaders.add(connection);
+				}
+			}
+		}
+
+		if (connection == null)
+		{
+			waits.incrementAndGet();
+
+			try
+			{
+				connection = idleReaders.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new SQLException(e);
+			}
+
+			if (connection == null)
+				throw new SQLException("Timed out waiting for a database connection.");
+		}
+
+		busyReaders.incrementAndGet();
+		readerLeases.incrementAndGet();
+
+		return connection;
+	}
+
+	/**
+	 * Returns a reader {@link Connection} to the pool
+	 *
+	 * @param connection The reader {@link Connection}
+	 */
+	void releaseReader(Connection connection)
+	{
+		busyReaders.decrementAndGet();
+
+		if (closed)
+			closeQuietly(connection);
+		else
+			idleReaders.offer(connection);
+	}
+
+	/**
+	 * Borrows the writer {@link Connection}. The lock is reentrant, so a thread that already holds the writer will get the same {@link
+	 * Connection} again, which allows nested writes to participate in an outer transaction.
+	 *
+	 * @return The writer {@link Connection}
+	 * @throws SQLException Thrown if the pool has been closed, the connection couldn't be opened or the wait timed out
+	 */
+	Connection acquireWriter()
+		throws SQLException
+	{
+		ensureOpen();
+
+		if (!writerLock.tryLock())
+		{
+			waits.incrementAndGet();
+
+			try
+			{
+				if (!writerLock.tryLock(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+					throw new SQLException("Timed out waiting for the database writer.");
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new SQLException(e);
+			}
+		}
+
+		try
+		{
+			if (writer == null || writer.isClosed())
+				writer = open(false);
+		}
+		catch (SQLException e)
+		{
+			writerLock.unlock();
+			throw e;
+		}
+
+		writerLeases.incrementAndGet();
+
+		return writer;
+	}
+
+	/**
+	 * Releases the writer {@link Connection} held by the current thread
+	 */
+	void releaseWriter()
+	{
+		writerLock.unlock();
+	}
+
+	/**
+	 * Closes all connections. Connections that are currently borrowed are closed when they are returned.
+	 */
+	void close()
+	{
+		closed = true;
+
+		Connection connection;
+		while ((connection = idleReaders.poll()) != null)
+			closeQuietly(connection);
+
+		writerLock.lock();
+		try
+		{
+			if (writer != null)
+				closeQuietly(writer);
+			writer = null;
+		}
+		finally
+		{
+			writerLock.unlock();
+		}
+	}
+
+	Database.PoolStatistics getStatistics()
+	{
+		return new Database.PoolStatistics(allReaders.size(), busyReaders.get(), maxReaders, writerLock.isLocked(), readerLeases.get(), writerLeases.get(), waits.get());
+	}
+
+	private void ensureOpen()
+		throws SQLException
+	{
+		if (closed)
+			throw new SQLException("The database connection pool has been closed.");
+	}
+
+	private Connection open(boolean readOnly)
+		throws SQLException
+	{
+		Connection connection = DriverManager.getConnection(url);
+
+		try (Statement stmt = connection.createStatement())
+		{
+			stmt.execute("PRAGMA busy_timeout = " + BUSY_TIMEOUT);
+			stmt.execute("PRAGMA cache_size = -" + CACHE_SIZE_KIB);
+			stmt.execute("PRAGMA foreign_keys = ON");
+
+			if (readOnly)
+			{
+				stmt.execute("PRAGMA query_only = ON");
+			}
+			else
+			{
+				/* The journal mode is persistent, but setting it again is cheap and makes sure old databases get converted */
+				stmt.execute("PRAGMA journal_mode = WAL");
+				stmt.execute("PRAGMA synchronous = NORMAL");
+			}
+		}
+		catch (SQLException e)
+		{
+			closeQuietly(connection);
+			throw e;
+		}
+
+		return connection;
+	}
+
+	private static void closeQuietly(Connection connection)
+	{
+		try
+		{
+			connection.close();
+		}
+		catch (SQLException e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -17,55 +17,54 @@
 package baz.timekeeper.database;
 
 import java.sql.*;
-import java.text.*;
+import java.time.*;
 import java.util.*;
 import java.util.Date;
 
-import baz.timekeeper.*;
+import baz.timekeeper.core.*;
 
 /**
  * @author Sebastian Raubach
  */
 public class DailyLog extends DatabaseObject
 {
-	public static final SimpleDateFormat SDF_DATE      = new SimpleDateFormat("yyyy-MM-dd");
-	public static final SimpleDateFormat SDF_DATE_TIME = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
-
 	public static final String ID    = "id";
 	public static final String DATE  = "date";
 	public static final String START = "start";
 	public static final String END   = "end";
 
-	private Date date;
-	private Date start;
-	private Date end;
+	/** The day as the number of days since 1970-01-01 */
+	private int  epochDay;
+	/** The first and last tracked second of the day, as seconds since the epoch */
+	private long start;
+	private long end;
 
 	public DailyLog(Integer id)
 	{
 		super(id);
 	}
 
-	public DailyLog(Integer id, Date date, Date start, Date end)
+	public DailyLog(Integer id, int epochDay, long start, long end)
 	{
 		super(id);
-		this.date = date;
+		this.epochDay = epochDay;
 		this.start = start;
 		this.end = end;
 	}
 
 	public static DailyLog getForToday() throws SQLException
 	{
-		return getForDay(new Date(System.currentTimeMillis()));
+		return getForDay((int) LocalDate.now().toEpochDay());
 	}
 
-	public static DailyLog getForDay(Date day) throws SQLException
+	public static DailyLog getForDay(int epochDay) throws SQLException
 	{
 		DailyLog result = null;
 
 		try (Database db = Database.connect())
 		{
-			PreparedStatement stmt = db.preparedStatement("SELECT * FROM `dailylog` WHERE date(`date`) = ?");
-			stmt.setString(1, SDF_DATE.format(day));
+			PreparedStatement stmt = db.preparedStatement("SELECT * FROM `dailylog` WHERE `date` = ?");
+			stmt.setLong(1, epochDay);
 
 			ResultSet rs = stmt.executeQuery();
 
@@ -74,10 +73,6 @@ public class DailyLog extends DatabaseObject
 				result = parse(rs);
 			}
 		}
-		catch (ParseException e)
-		{
-			throw new SQLException(e);
-		}
 
 		return result;
 	}
@@ -87,7 +82,7 @@ public class DailyLog extends DatabaseObject
 		try (Database db = Database.connect())
 		{
 			List<DailyLog> all = new ArrayList<>();
-			PreparedStatement stmt = db.preparedStatement("SELECT * FROM `historydata`");
+			PreparedStatement stmt = db.preparedStatement("SELECT * FROM `dailylog`");
 
 			ResultSet rs = stmt.executeQuery();
 
@@ -98,77 +93,138 @@ public class DailyLog extends DatabaseObject
 
 			return all;
 		}
-		catch (ParseException e)
-		{
-			throw new SQLException(e);
-		}
 	}
 
-	private static DailyLog parse(ResultSet rs) throws SQLException, ParseException
+	private static DailyLog parse(ResultSet rs) throws SQLException
 	{
-		return new DailyLog(rs.getInt(ID))
-				.setDate(SDF_DATE.parse(rs.getString(DATE)))
-				.setStart(SDF_DATE_TIME.parse(rs.getString(START)))
-				.setEnd(SDF_DATE_TIME.parse(rs.getString(END)));
+		DailyLog log = new DailyLog(rs.getInt(ID))
+				.setEpochDay(rs.getInt(DATE))
+				.setStart(rs.getLong(START))
+				.setEnd(rs.getLong(END));
+		log.markClean();
+		return log;
 	}
 
-	public Date getDate()
+	/**
+	 * Returns the day as the number of days since 1970-01-01
+	 *
+	 * @return The epoch day
+	 */
+	public int getEpochDay()
 	{
-		return date;
+		return epochDay;
 	}
 
-	public DailyLog setDate(Date date)
+	public DailyLog setEpochDay(int epochDay)
 	{
-		this.date = date;
+		if (this.epochDay != epochDay)
+		{
+			this.epochDay = epochDay;
+			markDirty();
+		}
+
 		return this;
 	}
 
-	public Date getStart()
+	/**
+	 * Returns the first tracked second of the day
+	 *
+	 * @return The number of seconds since the epoch
+	 */
+	public long getStart()
 	{
 		return start;
 	}
 
-	public DailyLog setStart(Date start)
+	public DailyLog setStart(long start)
 	{
-		this.start = start;
+		if (this.start != start)
+		{
+			this.start = start;
+			markDirty();
+		}
+
 		return this;
 	}
 
-	public Date getEnd()
+	/**
+	 * Returns the last tracked second of the day
+	 *
+	 * @return The number of seconds since the epoch
+	 */
+	public long getEnd()
 	{
 		return end;
 	}
 
-	public DailyLog setEnd(Date end)
+	public DailyLog setEnd(long end)
 	{
-		this.end = end;
+		if (this.end != end)
+		{
+			this.end = end;
+			markDirty();
+		}
+
 		return this;
 	}
 
+	/**
+	 * Returns the day as a {@link Date} at local midnight, for display purposes. Use {@link #getEpochDay()} everywhere else.
+	 *
+	 * @return The day
+	 */
+	public Date getDate()
+	{
+		return fromEpochDay(epochDay);
+	}
+
+	/**
+	 * Returns the first tracked second of the day as a {@link Date}, for display purposes. Use {@link #getStart()} everywhere else.
+	 *
+	 * @return The start
+	 */
+	public Date getStartDate()
+	{
+		return fromEpochSecond(start);
+	}
+
+	/**
+	 * Returns the last tracked second of the day as a {@link Date}, for display purposes. Use {@link #getEnd()} everywhere else.
+	 *
+	 * @return The end
+	 */
+	public Date getEndDate()
+	{
+		return fromEpochSecond(end);
+	}
+
 	@Override
 	public String toString()
 	{
 		return "DailyLog{" +
-				"date=" + date +
-				", start=" + start +
-				", end=" + end +
+				"date=" + LocalDate.ofEpochDay(epochDay) +
+				", start=" + Instant.ofEpochSecond(start) +
+				", end=" + Instant.ofEpochSecond(end) +
 				"} " + super.toString();
 	}
 
+	@Override
 	public void write() throws SQLException
 	{
-		if (Timekeeper.READ_ONLY_MODE)
+		if (Environment.isReadOnly())
 			return;
 
+		/* Read the version first, the values can change while they're written */
+		int version = getVersion();
 		int i = 1;
-		if (id == null)
+		try (Database db = Database.connectWriter())
 		{
-			try (Database db = Database.connect())
+			if (id == null)
 			{
-				PreparedStatement stmt = db.preparedStatement("INSERT INTO `dailylog` (`date`, `start`, `end`) VALUES (date(?), datetime(?), datetime(?))");
-				stmt.setString(i++, SDF_DATE.format(date));
-				stmt.setString(i++, SDF_DATE_TIME.format(start));
-				stmt.setString(i++, SDF_DATE_TIME.format(end));
+				PreparedStatement stmt = db.preparedStatement("INSERT INTO `dailylog` (`date`, `start`, `end`) VALUES (?, ?, ?)");
+				stmt.setLong(i++, epochDay);
+				stmt.setLong(i++, start);
+				stmt.setLong(i++, end);
 				int affectedRows = stmt.executeUpdate();
 
 				if (affectedRows > 0)
@@ -177,7 +233,7 @@ public class DailyLog extends DatabaseObject
 					{
 						if (generatedKeys.next())
 						{
-							setId(generatedKeys.getInt(1));
+							setGeneratedId(db, generatedKeys.getInt(1));
 						}
 						else
 						{
@@ -186,18 +242,17 @@ public class DailyLog extends DatabaseObject
 					}
 				}
 			}
-		}
-		else
-		{
-			try (Database db = Database.connect())
+			else
 			{
-				PreparedStatement stmt = db.preparedStatement("UPDATE `dailylog` SET `date` = date(?), `start` = datetime(?), `end` = datetime(?) WHERE `id` = ?");
-				stmt.setString(i++, SDF_DATE.format(date));
-				stmt.setString(i++, SDF_DATE_TIME.format(start));
-				stmt.setString(i++, SDF_DATE_TIME.format(end));
+				PreparedStatement stmt = db.preparedStatement("UPDATE `dailylog` SET `date` = ?, `start` = ?, `end` = ? WHERE `id` = ?");
+				stmt.setLong(i++, epochDay);
+				stmt.setLong(i++, start);
+				stmt.setLong(i++, end);
 				stmt.setInt(i++, id);
 				stmt.executeUpdate();
 			}
+
+			markWritten(db, version);
 		}
 	}
 }
@@ -19,84 +19,468 @@ package baz.timekeeper.database;
 import java.io.*;
 import java.nio.file.*;
 import java.sql.*;
+import java.util.*;
 
-import baz.timekeeper.util.*;
+import baz.timekeeper.core.*;
 
 /**
+ * {@link Database} is a lease on one of the pooled SQLite connections. Readers use {@link #connect()}, everything that modifies the database
+ * uses {@link #connectWriter()}. Closing the {@link Database} returns the connection to the pool rather than closing it.
+ *
  * @author Sebastian Raubach
  */
 public class Database implements AutoCloseable
 {
-	private static File DATABASE_FILE;
+	private static final int READER_POOL_SIZE             = 4;
+	/** The extended result code of a violated foreign key constraint, see https://www.sqlite.org/rescode.html */
+	private static final int SQLITE_CONSTRAINT_FOREIGNKEY = 787;
 
-	static
-	{
-		DATABASE_FILE = new File(new File(System.getProperty("user.home"), "." + TimesheetPropertyReader.PROPERTIES_FOLDER), "timekeeper.db");
+	private static File           DATABASE_FILE;
+	private static ConnectionPool pool;
 
-		if (!DATABASE_FILE.getParentFile().exists())
-			DATABASE_FILE.getParentFile().mkdirs();
+	private final ConnectionPool  owner;
+	private final boolean         writer;
+	private final Connection      connection;
+	private final List<Statement> statements = new ArrayList<>();
+	private       boolean         ownsTransaction;
 
-		File OLD_DATABASE_FILE = new File(new File(System.getProperty("user.home"), "." + TimesheetPropertyReader.PROPERTIES_FOLDER), "timesheetinator.db");
+	private Database(ConnectionPool owner, Connection connection, boolean writer)
+	{
+		this.owner = owner;
+		this.connection = connection;
+		this.writer = writer;
+	}
 
-		if (OLD_DATABASE_FILE.exists())
+	private static synchronized ConnectionPool getPool()
+		throws SQLException
+	{
+		if (pool == null)
 		{
+			pool = new ConnectionPool("jdbc:sqlite:" + getDatabaseFile().toURI().toString(), READER_POOL_SIZE);
+
+			/* Make sure the schema is up to date before anybody else gets a connection */
 			try
 			{
-				Files.move(OLD_DATABASE_FILE.toPath(), DATABASE_FILE.toPath());
+				Migrations.migrate();
 			}
-			catch (IOException e)
+			catch (SQLException e)
 			{
-				e.printStackTrace();
+				pool.close();
+				pool = null;
+				throw e;
 			}
 		}
 
-		if (!DATABASE_FILE.exists())
-			init();
+		return pool;
+	}
+
+	/**
+	 * Returns the SQLite database file within the {@link Environment#getDataFolder()}. The first call creates the folder and renames the
+	 * database of older versions.
+	 *
+	 * @return The database file
+	 */
+	public static synchronized File getDatabaseFile()
+	{
+		if (DATABASE_FILE == null)
+		{
+			File folder = Environment.getDataFolder();
+			DATABASE_FILE = new File(folder, "timekeeper.db");
+
+			if (!folder.exists())
+				folder.mkdirs();
+
+			File OLD_DATABASE_FILE = new File(folder, "timesheetinator.db");
+
+			if (OLD_DATABASE_FILE.exists())
+			{
+				try
+				{
+					Files.move(OLD_DATABASE_FILE.toPath(), DATABASE_FILE.toPath());
+				}
+				catch (IOException e)
+				{
+					e.printStackTrace();
+				}
+			}
+		}
+
+		return DATABASE_FILE;
+	}
+
+	/**
+	 * Borrows one of the pooled reader connections. The connection is returned to the pool when the {@link Database} is closed.
+	 *
+	 * @throws SQLException Thrown if no connection could be obtained
+	 */
+	public static Database connect()
+		throws SQLException
+	{
+		ConnectionPool pool = getPool();
+
+		return new Database(pool, pool.acquireReader(), false);
+	}
+
+	/**
+	 * Borrows the single writer connection. Only one thread can hold the writer at a time, but the same thread can borrow it repeatedly, in
+	 * which case all borrowers share the same connection (and transaction).
+	 *
+	 * @throws SQLException Thrown if the writer couldn't be obtained
+	 */
+	public static Database connectWriter()
+		throws SQLException
+	{
+		ConnectionPool pool = getPool();
+
+		return new Database(pool, pool.acquireWriter(), true);
+	}
+
+	/**
+	 * Opens the connection pool and brings the database up to the latest schema version, unless that has happened already. {@link
+	 * #connect()} and {@link #connectWriter()} do this implicitly.
+	 *
+	 * @throws SQLException Thrown if the database can't be opened or migrated
+	 */
+	public static void open()
+		throws SQLException
+	{
+		getPool();
+	}
+
+	/**
+	 * Returns the schema version every database is migrated to when it's opened
+	 *
+	 * @return The schema version, as stored in <code>PRAGMA user_version</code>
+	 */
+	public static int getSchemaVersion()
+	{
+		return Migrations.getLatestVersion();
 	}
 
-	private Connection connection;
+	/**
+	 * Returns a snapshot of the current utilisation of the connection pool
+	 *
+	 * @return The {@link PoolStatistics}
+	 */
+	public static synchronized PoolStatistics getPoolStatistics()
+	{
+		if (pool == null)
+			return new PoolStatistics(0, 0, READER_POOL_SIZE, false, 0, 0, 0);
+		else
+			return pool.getStatistics();
+	}
 
-	private static void init()
+	/**
+	 * Closes all pooled connections. A subsequent call to {@link #connect()} or {@link #connectWriter()} will open a new pool on the database
+	 * within the then current {@link Environment#getDataFolder()}.
+	 */
+	public static synchronized void shutdown()
 	{
-		try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + DATABASE_FILE.toURI().toString()))
+		if (pool != null)
 		{
-			connection.prepareStatement("CREATE TABLE `projects` ( `id` INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, `name` TEXT NOT NULL, `autostart` INTEGER NOT NULL DEFAULT 0, `visibility` INTEGER NOT NULL DEFAULT 1, `position` INTEGER NOT NULL DEFAULT 0);").execute();
-			connection.prepareStatement("CREATE TABLE `historydata` ( `id` INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, `project_id` INTEGER NOT NULL, `date` DATETIME NOT NULL, `time` INTEGER NOT NULL );").execute();
-			connection.prepareStatement("CREATE TABLE `dailylog` (`id` INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, `date` DATETIME NOT NULL, `start` DATETIME NOT NULL, `end` DATETIME NOT NULL );").execute();
+			pool.close();
+			pool = null;
 		}
-		catch (SQLException e)
+
+		DATABASE_FILE = null;
+	}
+
+	/**
+	 * Returns <code>true</code> if the given {@link SQLException} has been caused by a violated foreign key constraint. The driver's extended
+	 * result code is checked, the standard error code only says that some constraint has been violated.
+	 *
+	 * @param e The {@link SQLException}
+	 * @return <code>true</code> if the given {@link SQLException} has been caused by a violated foreign key constraint
+	 */
+	static boolean isForeignKeyViolation(SQLException e)
+	{
+		/* The SQLite driver isn't needed to compile the core, so SQLiteException#getResultCode() is looked up at runtime */
+		try
 		{
-			e.printStackTrace();
+			Object resultCode = e.getClass().getMethod("getResultCode").invoke(e);
+
+			return resultCode != null && resultCode.getClass().getField("code").getInt(resultCode) == SQLITE_CONSTRAINT_FOREIGNKEY;
+		}
+		catch (ReflectiveOperationException | RuntimeException ex)
+		{
+			return false;
 		}
 	}
 
+	PreparedStatement preparedStatement(String sql)
+		throws SQLException
+	{
+		PreparedStatement stmt = connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+		statements.add(stmt);
+		return stmt;
+	}
+
 	/**
-	 * Connects to the given MySQL database with specified credentials
+	 * Starts a transaction on this connection unless one is already running, in which case this call joins the outer transaction.
 	 *
-	 * @throws SQLException Thrown if any kind of {@link Exception} is thrown while trying to connect. The {@link SQLException} will contain the
-	 *                      message of the original {@link Exception}.
+	 * @throws SQLException Thrown if the transaction couldn't be started
 	 */
-	public static Database connect()
+	void beginTransaction()
 		throws SQLException
 	{
-		Database database = new Database();
+		if (connection.getAutoCommit())
+		{
+			connection.setAutoCommit(false);
+			ownsTransaction = true;
+		}
+	}
 
-		/* Connect to the database */
-		database.connection = DriverManager.getConnection("jdbc:sqlite:" + DATABASE_FILE.toURI().toString());
+	/**
+	 * Commits the transaction started by {@link #beginTransaction()}. Does nothing if this {@link Database} joined an outer transaction.
+	 *
+	 * @throws SQLException Thrown if the commit fails
+	 */
+	void commit()
+		throws SQLException
+	{
+		if (ownsTransaction)
+		{
+			connection.commit();
+			connection.setAutoCommit(true);
+			ownsTransaction = false;
 
-		return database;
+			owner.onRollback.clear();
+			runAll(owner.afterCommit, false);
+		}
 	}
 
-	PreparedStatement preparedStatement(String sql)
+	/**
+	 * Runs the given action once the current transaction has been committed. Outside of a transaction, the statements that have been executed
+	 * are committed already, so the action is run right away. If the transaction is rolled back, the action is discarded.
+	 *
+	 * @param action The action, e.g. updating a cache with the values that have been written
+	 * @throws SQLException Thrown if the state of the connection can't be determined
+	 */
+	void afterCommit(Runnable action)
+		throws SQLException
+	{
+		if (connection.getAutoCommit())
+			run(action);
+		else
+			owner.afterCommit.add(action);
+	}
+
+	/**
+	 * Runs the given action if the current transaction (or the {@link Checkpoint} that has been set last) is rolled back. Actions are run in
+	 * reverse order. Outside of a transaction, there's nothing to roll back and the action is discarded.
+	 *
+	 * @param action The action, e.g. restoring the state of an object that has been changed by a write
+	 * @throws SQLException Thrown if the state of the connection can't be determined
+	 */
+	void onRollback(Runnable action)
+		throws SQLException
+	{
+		if (!connection.getAutoCommit())
+			owner.onRollback.add(action);
+	}
+
+	/**
+	 * Sets a savepoint within the current transaction. Everything that happens after it can be rolled back via {@link #rollback(Checkpoint)}
+	 * without affecting the rest of the transaction.
+	 *
+	 * @return The {@link Checkpoint}
+	 * @throws SQLException Thrown if the savepoint can't be set, e.g. because there's no transaction
+	 */
+	Checkpoint setCheckpoint()
+		throws SQLException
+	{
+		return new Checkpoint(connection.setSavepoint(), owner.afterCommit.size(), owner.onRollback.size());
+	}
+
+	/**
+	 * Keeps everything that has happened since the given {@link Checkpoint} as part of the transaction
+	 *
+	 * @param checkpoint The {@link Checkpoint}
+	 * @throws SQLException Thrown if the savepoint can't be released
+	 */
+	void release(Checkpoint checkpoint)
+		throws SQLException
+	{
+		connection.releaseSavepoint(checkpoint.savepoint);
+	}
+
+	/**
+	 * Rolls back everything that has happened since the given {@link Checkpoint}, including the actions registered since then
+	 *
+	 * @param checkpoint The {@link Checkpoint}
+	 * @throws SQLException Thrown if the rollback fails
+	 */
+	void rollback(Checkpoint checkpoint)
 		throws SQLException
 	{
-		return connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS);
+		connection.rollback(checkpoint.savepoint);
+		connection.releaseSavepoint(checkpoint.savepoint);
+
+		owner.afterCommit.subList(checkpoint.afterCommit, owner.afterCommit.size()).clear();
+		runAll(owner.onRollback.subList(checkpoint.onRollback, owner.onRollback.size()), true);
+	}
+
+	/**
+	 * Removes all actions from the given {@link List} and runs them
+	 */
+	private static void runAll(List<Runnable> actions, boolean reverse)
+	{
+		List<Runnable> copy = new ArrayList<>(actions);
+		actions.clear();
+
+		if (reverse)
+			Collections.reverse(copy);
+
+		copy.forEach(Database::run);
+	}
+
+	private static void run(Runnable action)
+	{
+		try
+		{
+			action.run();
+		}
+		catch (RuntimeException e)
+		{
+			e.printStackTrace();
+		}
 	}
 
 	@Override
 	public void close()
 		throws SQLException
 	{
-		connection.close();
+		try
+		{
+			for (Statement stmt : statements)
+				stmt.close();
+			statements.clear();
+
+			/* Roll back anything that hasn't been committed */
+			if (ownsTransaction)
+			{
+				ownsTransaction = false;
+				owner.afterCommit.clear();
+
+				try
+				{
+					connection.rollback();
+					connection.setAutoCommit(true);
+				}
+				finally
+				{
+					/* Restore the objects the transaction has changed, even if the connection is broken */
+					runAll(owner.onRollback, true);
+				}
+			}
+		}
+		finally
+		{
+			if (writer)
+				owner.releaseWriter();
+			else
+				owner.releaseReader(connection);
+		}
+	}
+
+	/**
+	 * {@link Checkpoint} is a savepoint within a transaction, see {@link #setCheckpoint()}
+	 */
+	static class Checkpoint
+	{
+		private final java.sql.Savepoint savepoint;
+		private final int                afterCommit;
+		private final int                onRollback;
+
+		private Checkpoint(java.sql.Savepoint savepoint, int afterCommit, int onRollback)
+		{
+			this.savepoint = savepoint;
+			this.afterCommit = afterCommit;
+			this.onRollback = onRollback;
+		}
+	}
+
+	/**
+	 * {@link PoolStatistics} is a snapshot of the utilisation of the connection pool
+	 */
+	public static class PoolStatistics
+	{
+		private final int     openReaders;
+		private final int     busyReaders;
+		private final int     maxReaders;
+		private final boolean writerBusy;
+		private final long    readerLeases;
+		private final long    writerLeases;
+		private final long    waits;
+
+		PoolStatistics(int openReaders, int busyReaders, int maxReaders, boolean writerBusy, long readerLeases, long writerLeases, long waits)
+		{
+			this.openReaders = openReaders;
+			this.busyReaders = busyReaders;
+			this.maxReaders = maxReaders;
+			this.writerBusy = writerBusy;
+			this.readerLeases = readerLeases;
+			this.writerLeases = writerLeases;
+			this.waits = waits;
+		}
+
+		public int getOpenReaders()
+		{
+			return openReaders;
+		}
+
+		public int getBusyReaders()
+		{
+			return busyReaders;
+		}
+
+		public int getMaxReaders()
+		{
+			return maxReaders;
+		}
+
+		public boolean isWriterBusy()
+		{
+			return writerBusy;
+		}
+
+		public long getReaderLeases()
+		{
+			return readerLeases;
+		}
+
+		public long getWriterLeases()
+		{
+			return writerLeases;
+		}
+
+		public long getWaits()
+		{
+			return waits;
+		}
+
+		/**
+		 * Returns the fraction of the reader pool that is currently borrowed
+		 *
+		 * @return The utilisation in the range [0, 1]
+		 */
+		public double getReaderUtilisation()
+		{
+			return maxReaders == 0 ? 0 : busyReaders / (double) maxReaders;
+		}
+
+		@Override
+		public String toString()
+		{
+			return "PoolStatistics{" +
+					"openReaders=" + openReaders +
+					", busyReaders=" + busyReaders +
+					", maxReaders=" + maxReaders +
+					", writerBusy=" + writerBusy +
+					", readerLeases=" + readerLeases +
+					", writerLeases=" + writerLeases +
+					", waits=" + waits +
+					'}';
+		}
 	}
 }
@@ -16,18 +16,119 @@
 
 package baz.timekeeper.database;
 
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+import java.util.Date;
+import java.util.concurrent.atomic.*;
+
 /**
+ * {@link DatabaseObject} is the base class of all entities that are stored in the database. It keeps track of whether the entity has been
+ * modified since it has last been read or written: setters that change a value mark it dirty, {@link #write()} marks it clean again.
+ * <p>
+ * Objects are changed on the UI thread while the persistence thread writes them. Every change increments a version, and a write only marks the
+ * object clean up to the version it has read before writing, so a change made during the write keeps the object dirty. Setters assign the
+ * value before calling {@link #markDirty()}, which makes the new value visible to any thread that sees the new version.
+ *
  * @author Sebastian Raubach
  */
 public abstract class DatabaseObject
 {
-	protected Integer id;
+	protected volatile Integer id;
+
+	/** Incremented by every change */
+	private final    AtomicInteger version      = new AtomicInteger();
+	/** The version that has last been written to (or read from) the database */
+	private volatile int           cleanVersion = 0;
 
 	public DatabaseObject(Integer id)
 	{
 		this.id = id;
 	}
 
+	/**
+	 * Writes this object to the database and marks it clean
+	 *
+	 * @throws SQLException Thrown if the write fails
+	 */
+	public abstract void write() throws SQLException;
+
+	/**
+	 * Returns <code>true</code> if this object has never been written to the database
+	 *
+	 * @return <code>true</code> if this object has never been written to the database
+	 */
+	protected boolean isNew()
+	{
+		return id == null;
+	}
+
+	/**
+	 * Returns <code>true</code> if this object has changes that haven't been written to the database yet. Objects that have never been written
+	 * are always dirty.
+	 *
+	 * @return <code>true</code> if this object has to be written
+	 */
+	public boolean isDirty()
+	{
+		return version.get() != cleanVersion || isNew();
+	}
+
+	protected void markDirty()
+	{
+		version.incrementAndGet();
+	}
+
+	protected void markClean()
+	{
+		cleanVersion = version.get();
+	}
+
+	/**
+	 * Returns the current version of this object. Writes read it before reading any of the values, see {@link #markWritten(Database, int)}.
+	 *
+	 * @return The version
+	 */
+	protected int getVersion()
+	{
+		return version.get();
+	}
+
+	/**
+	 * Marks this object clean after it has been written via the given {@link Database}. If it has been changed since the given version has
+	 * been read, it stays dirty. If the surrounding transaction is rolled back, nothing has actually been written and the object is marked
+	 * dirty again.
+	 *
+	 * @param db      The {@link Database} that has written this object
+	 * @param written The version that has been written, see {@link #getVersion()}
+	 * @throws SQLException Thrown if the transaction state can't be determined
+	 */
+	protected void markWritten(Database db, int written) throws SQLException
+	{
+		int previous = cleanVersion;
+
+		if (previous != written)
+			db.onRollback(() -> cleanVersion = previous);
+
+		cleanVersion = written;
+	}
+
+	/**
+	 * Sets the id that has been generated when this object was inserted via the given {@link Database}. If the surrounding transaction is
+	 * rolled back, the row doesn't exist and the previous id is restored, so that the object is inserted again next time.
+	 *
+	 * @param db The {@link Database} that has inserted this object
+	 * @param id The generated id
+	 * @throws SQLException Thrown if the transaction state can't be determined
+	 */
+	protected void setGeneratedId(Database db, int id) throws SQLException
+	{
+		Integer previous = this.id;
+		db.onRollback(() -> this.id = previous);
+
+		this.id = id;
+	}
+
 	public Integer getId()
 	{
 		return id;
@@ -39,6 +140,40 @@ public abstract class DatabaseObject
 		return this;
 	}
 
+	/**
+	 * Converts the given epoch day to a {@link Date} at local midnight. Entities hold days as epoch days, {@link Date}s are only used for
+	 * display.
+	 *
+	 * @param epochDay The number of days since 1970-01-01
+	 * @return The {@link Date}
+	 */
+	static Date fromEpochDay(long epochDay)
+	{
+		return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toInstant());
+	}
+
+	/**
+	 * Returns the epoch second of local midnight of the given day
+	 *
+	 * @param epochDay The number of days since 1970-01-01
+	 * @return The number of seconds since the epoch
+	 */
+	static long getDayStart(long epochDay)
+	{
+		return LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toEpochSecond();
+	}
+
+	/**
+	 * Converts the given epoch second to a {@link Date}
+	 *
+	 * @param epochSecond The number of seconds since the epoch
+	 * @return The {@link Date}
+	 */
+	static Date fromEpochSecond(long epochSecond)
+	{
+		return new Date(epochSecond * 1000);
+	}
+
 	@Override
 	public boolean equals(Object o)
 	{
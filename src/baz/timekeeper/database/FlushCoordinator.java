@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.database;
+
+import java.sql.*;
+import java.util.*;
+
+import baz.timekeeper.core.*;
+
+/**
+ * {@link FlushCoordinator} writes the dirty ones of a set of {@link DatabaseObject}s in a single transaction. Clean objects are skipped, so if
+ * nothing has changed, no connection is borrowed and nothing is written.
+ *
+ * @author Sebastian Raubach
+ */
+public class FlushCoordinator
+{
+	/**
+	 * Writes all dirty objects of the given {@link Collection}s in a single transaction
+	 *
+	 * @param objects The {@link DatabaseObject}s to consider
+	 * @return The number of objects that have been written
+	 * @throws SQLException Thrown if the transaction fails. All objects stay dirty in this case, and new objects stay new.
+	 */
+	@SafeVarargs
+	public static int flush(Collection<? extends DatabaseObject>... objects) throws SQLException
+	{
+		if (Environment.isReadOnly())
+			return 0;
+
+		List<HistoryData> history = new ArrayList<>();
+		List<DatabaseObject> other = new ArrayList<>();
+
+		for (Collection<? extends DatabaseObject> collection : objects)
+		{
+			for (DatabaseObject object : collection)
+			{
+				if (object == null || !object.isDirty())
+					continue;
+
+				/* HistoryData can all be written with the same statement */
+				if (object instanceof HistoryData)
+					history.add((HistoryData) object);
+				else
+					other.add(object);
+			}
+		}
+
+		if (history.isEmpty() && other.isEmpty())
+			return 0;
+
+		try (Database db = Database.connectWriter())
+		{
+			db.beginTransaction();
+
+			for (DatabaseObject object : other)
+				object.write();
+
+			HistoryData.writeAll(history);
+
+			/* If the transaction is rolled back, the objects restore their ids and dirty state themselves, see DatabaseObject#markWritten */
+			db.commit();
+		}
+
+		return history.size() + other.size();
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.database;
+
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+import baz.timekeeper.core.*;
+
+/**
+ * {@link History} provides the history of all projects as a {@link HistoryStore}. Opening it only loads the index of all days from the
+ * per-day totals that are maintained by triggers. The cells are loaded on demand, a page of days at a time, using the date range of the page as the key rather than an offset.
+ *
+ * @author Sebastian Raubach
+ */
+public class History
+{
+	private static final String INDEX_QUERY     = "SELECT `date`, `total` FROM `daytotals` WHERE `date` <> ? ORDER BY `date` DESC";
+	private static final String RANGE_QUERY     = "SELECT MIN(`date`), MAX(`date`) FROM `daytotals`";
+	private static final String PAGE_QUERY      = "SELECT `project_id`, `date`, `time` FROM `historydata` WHERE `date` BETWEEN ? AND ?";
+	private static final String CELLS_QUERY     = "SELECT `project_id`, `date`, `time` FROM `historydata`";
+	private static final String DAILY_LOG_QUERY = "SELECT MIN(`id`) AS `id`, `date`, `start`, `end` FROM `dailylog` WHERE `date` BETWEEN ? AND ? GROUP BY `date`";
+
+	/**
+	 * Returns the history of all days except today, most recent day first. There's a column for every {@link Project}, sorted by position.
+	 *
+	 * @return The {@link HistoryStore}
+	 * @throws SQLException Thrown if the query fails
+	 */
+	public static HistoryStore open() throws SQLException
+	{
+		List<Project> projects = Project.getAll();
+		Project.sortByPosition(projects);
+
+		long[] epochDays = new long[64];
+		int[] totals = new int[64];
+		int rows = 0;
+
+		try (Database db = Database.connect())
+		{
+			PreparedStatement stmt = db.preparedStatement(INDEX_QUERY);
+			stmt.setLong(1, LocalDate.now().toEpochDay());
+
+			ResultSet rs = stmt.executeQuery();
+
+			while (rs.next())
+			{
+				if (rows == epochDays.length)
+				{
+					epochDays = Arrays.copyOf(epochDays, rows * 2);
+					totals = Arrays.copyOf(totals, rows * 2);
+				}
+
+				epochDays[rows] = rs.getLong(1);
+				totals[rows] = rs.getInt(2);
+				rows++;
+			}
+		}
+
+		return new HistoryStore(projects, Arrays.copyOf(epochDays, rows), Arrays.copyOf(totals, rows), History::loadPage);
+	}
+
+	/**
+	 * Loads the time of every project and day, including today, into {@link RangeTotals} using a single query
+	 *
+	 * @return The {@link RangeTotals}
+	 * @throws SQLException Thrown if the history can't be loaded
+	 */
+	public static RangeTotals openRangeTotals() throws SQLException
+	{
+		long today = LocalDate.now().toEpochDay();
+		long first = today;
+		long last = today;
+
+		Map<Project, long[]> values = new HashMap<>();
+		/* Cells that have been written after the range was determined */
+		List<HistoryData> outside = new ArrayList<>();
+
+		try (Database db = Database.connect())
+		{
+			ResultSet rs = db.preparedStatement(RANGE_QUERY).executeQuery();
+
+			if (rs.next() && rs.getObject(1) != null)
+			{
+				first = Math.min(first, rs.getLong(1));
+				last = Math.max(last, rs.getLong(2));
+			}
+
+			int size = (int) (last - first + 1);
+
+			rs = db.preparedStatement(CELLS_QUERY).executeQuery();
+
+			while (rs.next())
+			{
+				Project project = ProjectRegistry.get(rs.getInt(HistoryData.PROJECT_ID));
+				int epochDay = rs.getInt(HistoryData.DATE);
+				int time = rs.getInt(HistoryData.TIME);
+
+				if (project == null)
+					continue;
+
+				if (epochDay >= first && epochDay <= last)
+					values.computeIfAbsent(project, p -> new long[size])[(int) (epochDay - first)] = time;
+				else
+					outside.add(new HistoryData(null, project, epochDay, time));
+			}
+		}
+
+		RangeTotals totals = new RangeTotals(first, last, values);
+
+		/* Grows the trees */
+		for (HistoryData data : outside)
+			totals.set(data.getProject(), data.getEpochDay(), data.getTime());
+
+		return totals;
+	}
+
+	/**
+	 * Loads the {@link HistoryData} and {@link DailyLog}s of the given range of days
+	 */
+	private static void loadPage(long fromEpochDay, long toEpochDay, HistoryStore.PageSink sink) throws SQLException
+	{
+		try (Database db = Database.connect())
+		{
+			PreparedStatement stmt = db.preparedStatement(PAGE_QUERY);
+			stmt.setLong(1, fromEpochDay);
+			stmt.setLong(2, toEpochDay);
+
+			ResultSet rs = stmt.executeQuery();
+
+			while (rs.next())
+			{
+				Project project = ProjectRegistry.get(rs.getInt(HistoryData.PROJECT_ID));
+
+				if (project != null)
+					sink.put(rs.getLong(HistoryData.DATE), project, rs.getInt(HistoryData.TIME));
+			}
+
+			stmt = db.preparedStatement(DAILY_LOG_QUERY);
+			stmt.setLong(1, fromEpochDay);
+			stmt.setLong(2, toEpochDay);
+
+			rs = stmt.executeQuery();
+
+			while (rs.next())
+			{
+				long day = rs.getLong(DailyLog.DATE);
+				sink.putDailyLog(day, new DailyLog(rs.getInt(DailyLog.ID), (int) day, rs.getLong(DailyLog.START), rs.getLong(DailyLog.END)));
+			}
+		}
+	}
+}
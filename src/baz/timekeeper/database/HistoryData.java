@@ -17,27 +17,29 @@
 package baz.timekeeper.database;
 
 import java.sql.*;
-import java.text.*;
+import java.time.*;
 import java.util.*;
 import java.util.Date;
 
-import baz.timekeeper.*;
+import baz.timekeeper.core.*;
 
 /**
  * @author Sebastian Raubach
  */
 public class HistoryData extends DatabaseObject
 {
-	//	public static final SimpleDateFormat SDF_DATETIME = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss:SSS");
-	public static final SimpleDateFormat SDF_DATE = new SimpleDateFormat("yyyy-MM-dd");
-
 	public static final String ID         = "id";
 	public static final String PROJECT_ID = "project_id";
 	public static final String DATE       = "date";
 	public static final String TIME       = "time";
 
+	/** Appends the difference between the new and the current time as an {@link Interval}, nothing if they're the same */
+	private static final String APPEND    = "INSERT INTO `intervals` (`project_id`, `date`, `start`, `end`, `seconds`) SELECT ?, ?, ? - ? * MAX(`seconds`, 0), ?, `seconds` FROM (SELECT ? - IFNULL((SELECT `time` FROM `historydata` WHERE `project_id` = ? AND `date` = ?), 0) AS `seconds`) WHERE `seconds` != 0";
+	private static final String SELECT_ID = "SELECT `id` FROM `historydata` WHERE `project_id` = ? AND `date` = ?";
+
 	private Project project;
-	private Date    date;
+	/** The day as the number of days since 1970-01-01 */
+	private int     epochDay;
 	private int     time;
 
 	public HistoryData(Integer id)
@@ -45,11 +47,11 @@ public class HistoryData extends DatabaseObject
 		super(id);
 	}
 
-	public HistoryData(Integer id, Project project, Date date, int time)
+	public HistoryData(Integer id, Project project, int epochDay, int time)
 	{
 		super(id);
 		this.project = project;
-		this.date = date;
+		this.epochDay = epochDay;
 		this.time = time;
 	}
 
@@ -69,10 +71,6 @@ public class HistoryData extends DatabaseObject
 
 			return all;
 		}
-		catch (ParseException e)
-		{
-			throw new SQLException(e);
-		}
 	}
 
 	public static Map<Project, HistoryData> getAllForToday() throws SQLException
@@ -80,8 +78,8 @@ public class HistoryData extends DatabaseObject
 		try (Database db = Database.connect())
 		{
 			Map<Project, HistoryData> all = new HashMap<>();
-			PreparedStatement stmt = db.preparedStatement("SELECT * FROM `historydata` WHERE date(`date`) = ?");
-			stmt.setString(1, SDF_DATE.format(new Date()));
+			PreparedStatement stmt = db.preparedStatement("SELECT * FROM `historydata` WHERE `date` = ?");
+			stmt.setLong(1, LocalDate.now().toEpochDay());
 
 			ResultSet rs = stmt.executeQuery();
 
@@ -94,30 +92,36 @@ public class HistoryData extends DatabaseObject
 
 			return all;
 		}
-		catch (ParseException e)
-		{
-			throw new SQLException(e);
-		}
 	}
 
-	private static HistoryData parse(ResultSet rs) throws SQLException, ParseException
+	private static HistoryData parse(ResultSet rs) throws SQLException
 	{
-		return new HistoryData(rs.getInt(ID))
-				.setProject(Project.getById(rs.getInt(PROJECT_ID)))
-				.setDate(SDF_DATE.parse(rs.getString(DATE)))
+		HistoryData data = new HistoryData(rs.getInt(ID))
+				.setProject(ProjectRegistry.get(rs.getInt(PROJECT_ID)))
+				.setEpochDay(rs.getInt(DATE))
 				.setTime(rs.getInt(TIME));
+		data.markClean();
+		return data;
 	}
 
 	public static boolean removeForProject(Project project) throws SQLException
 	{
-		if (Timekeeper.READ_ONLY_MODE)
+		if (Environment.isReadOnly())
 			return false;
 
-		try (Database db = Database.connect())
+		try (Database db = Database.connectWriter())
 		{
-			PreparedStatement stmt = db.preparedStatement("DELETE FROM `historydata` WHERE `project_id` = ?");
+			PreparedStatement stmt = db.preparedStatement("DELETE FROM `intervals` WHERE `project_id` = ?");
+			stmt.setInt(1, project.getId());
+			stmt.execute();
+
+			stmt = db.preparedStatement("DELETE FROM `historydata` WHERE `project_id` = ?");
 			stmt.setInt(1, project.getId());
-			return stmt.execute();
+			boolean result = stmt.execute();
+
+			db.afterCommit(() -> RangeTotals.onProjectRemoved(project));
+
+			return result;
 		}
 	}
 
@@ -128,21 +132,46 @@ public class HistoryData extends DatabaseObject
 
 	public HistoryData setProject(Project project)
 	{
-		this.project = project;
+		if (!Objects.equals(this.project, project))
+		{
+			this.project = project;
+			markDirty();
+		}
+
 		return this;
 	}
 
-	public Date getDate()
+	/**
+	 * Returns the day as the number of days since 1970-01-01
+	 *
+	 * @return The epoch day
+	 */
+	public int getEpochDay()
 	{
-		return date;
+		return epochDay;
 	}
 
-	public HistoryData setDate(Date date)
+	public HistoryData setEpochDay(int epochDay)
 	{
-		this.date = date;
+		if (this.epochDay != epochDay)
+		{
+			this.epochDay = epochDay;
+			markDirty();
+		}
+
 		return this;
 	}
 
+	/**
+	 * Returns the day as a {@link Date} at local midnight, for display purposes. Use {@link #getEpochDay()} everywhere else.
+	 *
+	 * @return The day
+	 */
+	public Date getDate()
+	{
+		return fromEpochDay(epochDay);
+	}
+
 	public int getTime()
 	{
 		return time;
@@ -150,7 +179,12 @@ public class HistoryData extends DatabaseObject
 
 	public HistoryData setTime(int time)
 	{
-		this.time = time;
+		if (this.time != time)
+		{
+			this.time = time;
+			markDirty();
+		}
+
 		return this;
 	}
 
@@ -159,61 +193,173 @@ public class HistoryData extends DatabaseObject
 	{
 		return "HistoryData{" +
 				"project=" + project +
-				", date=" + date +
+				", date=" + LocalDate.ofEpochDay(epochDay) +
 				", time=" + time +
 				"} " + super.toString();
 	}
 
+	/**
+	 * Writes this {@link HistoryData} to the database. The entries are the sums of the {@link Interval}s per project and day, so the
+	 * difference to the time stored so far is appended as an {@link Interval}. Entries of projects that have been deleted in the meantime
+	 * aren't written and stay dirty.
+	 *
+	 * @throws SQLException Thrown if the write fails
+	 */
+	@Override
 	public void write() throws SQLException
 	{
-		if (Timekeeper.READ_ONLY_MODE)
+		if (Environment.isReadOnly())
+			return;
+
+		try (Database db = Database.connectWriter())
+		{
+			write(db, db.preparedStatement(APPEND), db.preparedStatement(SELECT_ID));
+		}
+	}
+
+	/**
+	 * Writes all the given {@link HistoryData} in a single transaction using a single {@link PreparedStatement}
+	 *
+	 * @param data The {@link HistoryData} to write
+	 * @throws SQLException Thrown if the write fails. Nothing is written in this case.
+	 * @see #write()
+	 */
+	public static void writeAll(Collection<HistoryData> data) throws SQLException
+	{
+		if (Environment.isReadOnly() || data.isEmpty())
 			return;
 
-		/* Check if the project (still) exists */
-		Project p = Project.getById(project.getId());
+		try (Database db = Database.connectWriter())
+		{
+			db.beginTransaction();
+
+			PreparedStatement append = db.preparedStatement(APPEND);
+			PreparedStatement selectId = db.preparedStatement(SELECT_ID);
+
+			for (HistoryData d : data)
+				d.write(db, append, selectId);
+
+			db.commit();
+		}
+	}
 
-		if (p == null)
+	/**
+	 * Writes all the given {@link HistoryData} in a single transaction as a JDBC batch. This is a lot faster than {@link
+	 * #writeAll(Collection)} for large amounts of data, but the ids aren't read back, so the objects should be discarded afterwards. Imports
+	 * that don't fit into memory at once should use {@link #startImport()} instead.
+	 *
+	 * @param data The {@link HistoryData} to write
+	 * @throws SQLException Thrown if the write fails. Nothing is written in this case.
+	 */
+	public static void importAll(Collection<HistoryData> data) throws SQLException
+	{
+		if (Environment.isReadOnly() || data.isEmpty())
 			return;
 
+		try (Import bulk = startImport())
+		{
+			bulk.add(data);
+			bulk.finish();
+		}
+	}
+
+	/**
+	 * Starts a bulk import. The imported times are appended as corrections, see {@link Interval}. The triggers that maintain the per-day
+	 * totals and the rollups are dropped until {@link Import#finish()}, which rebuilds the totals once instead of updating them for every
+	 * imported row. Everything happens in a single transaction that holds the
+	 * writer, other writes of the same thread (e.g. {@link FlushCoordinator#flush(Collection)}) join it.
+	 *
+	 * @return The {@link Import}. Closing it without calling {@link Import#finish()} discards everything.
+	 * @throws SQLException Thrown if the import can't be started
+	 */
+	public static Import startImport() throws SQLException
+	{
+		if (Environment.isReadOnly())
+			throw new SQLException("The database is read-only.");
+
+		Database db = Database.connectWriter();
+
+		try
+		{
+			db.beginTransaction();
+			Migrations.dropTotalTriggers(db);
+
+			return new Import(db);
+		}
+		catch (SQLException e)
+		{
+			db.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Sets the parameters of {@link #APPEND}. Time that has been added to today has been tracked until now, anything else is a correction
+	 * without duration, made now for today and at the start of the day for any other day.
+	 */
+	private static void setAppendParameters(PreparedStatement stmt, Project project, int epochDay, int time, boolean tracked) throws SQLException
+	{
+		long end = tracked ? Instant.now().getEpochSecond() : getDayStart(epochDay);
+
 		int i = 1;
-		if (id == null)
+		stmt.setInt(i++, project.getId());
+		stmt.setLong(i++, epochDay);
+		stmt.setLong(i++, end);
+		stmt.setInt(i++, tracked ? 1 : 0);
+		stmt.setLong(i++, end);
+		stmt.setInt(i++, time);
+		stmt.setInt(i++, project.getId());
+		stmt.setLong(i++, epochDay);
+	}
+
+	private void write(Database db, PreparedStatement append, PreparedStatement selectId) throws SQLException
+	{
+		/* Read the version first, the values can change while they're written */
+		int version = getVersion();
+		Project project = this.project;
+		int epochDay = this.epochDay;
+		int time = this.time;
+
+		try
 		{
-			try (Database db = Database.connect())
+			setAppendParameters(append, project, epochDay, time, epochDay == LocalDate.now().toEpochDay());
+			append.executeUpdate();
+
+			if (id == null)
 			{
-				PreparedStatement stmt = db.preparedStatement("INSERT INTO `historydata` (`project_id`, `date`, `time`) VALUES (?, date(?), ?)");
-				stmt.setInt(i++, project.getId());
-				stmt.setString(i++, SDF_DATE.format(date));
-				stmt.setInt(i++, time);
-				int affectedRows = stmt.executeUpdate();
+				selectId.setInt(1, project.getId());
+				selectId.setLong(2, epochDay);
 
-				if (affectedRows > 0)
+				try (ResultSet rs = selectId.executeQuery())
 				{
-					try (ResultSet generatedKeys = stmt.getGeneratedKeys())
-					{
-						if (generatedKeys.next())
-						{
-							setId(generatedKeys.getInt(1));
-						}
-						else
-						{
-							throw new SQLException("Creating item failed, no ID obtained.");
-						}
-					}
+					if (rs.next())
+						setGeneratedId(db, rs.getInt(1));
 				}
 			}
+
+			/* Only what has actually been committed is added to the totals */
+			db.afterCommit(() -> RangeTotals.onCellChanged(project, epochDay, time));
 		}
-		else
+		catch (SQLException e)
 		{
-			try (Database db = Database.connect())
-			{
-				PreparedStatement stmt = db.preparedStatement("UPDATE `historydata` SET `project_id` = ?, `date` = date(?), `time` = ? WHERE `id` = ?");
-				stmt.setInt(i++, project.getId());
-				stmt.setString(i++, SDF_DATE.format(date));
-				stmt.setInt(i++, time);
-				stmt.setInt(i++, id);
-				stmt.executeUpdate();
-			}
+			/* The project (no longer) exists. Nothing has been written, so the entry stays dirty for the caller to see. */
+			if (Database.isForeignKeyViolation(e))
+				return;
+
+			throw e;
 		}
+
+		markWritten(db, version);
+	}
+
+	@Override
+	public boolean isDirty()
+	{
+		/* There's nothing worth storing for a new entry that hasn't tracked any time yet */
+		if (isNew() && time == 0)
+			return false;
+		else
+			return super.isDirty();
 	}
 
 	@Override
@@ -223,7 +369,7 @@ public class HistoryData extends DatabaseObject
 		{
 			int result = 1;
 			result = 31 * result + (project != null ? project.hashCode() : 0);
-			result = 31 * result + (date != null ? date.hashCode() : 0);
+			result = 31 * result + epochDay;
 			return result;
 		}
 		else
@@ -231,4 +377,57 @@ public class HistoryData extends DatabaseObject
 			return super.hashCode();
 		}
 	}
+
+	/**
+	 * {@link Import} is a bulk import of {@link HistoryData}, see {@link #startImport()}
+	 */
+	public static class Import implements AutoCloseable
+	{
+		private final Database          db;
+		private final PreparedStatement stmt;
+
+		private Import(Database db) throws SQLException
+		{
+			this.db = db;
+			this.stmt = db.preparedStatement(APPEND);
+		}
+
+		/**
+		 * Writes the given {@link HistoryData} as a JDBC batch. The ids aren't read back.
+		 *
+		 * @param data The {@link HistoryData} to write
+		 * @throws SQLException Thrown if the write fails
+		 */
+		public void add(Collection<HistoryData> data) throws SQLException
+		{
+			for (HistoryData d : data)
+			{
+				setAppendParameters(stmt, d.project, d.epochDay, d.time, false);
+				stmt.addBatch();
+			}
+
+			stmt.executeBatch();
+		}
+
+		/**
+		 * Rebuilds the per-day totals and the rollups, restores their triggers and commits the import
+		 *
+		 * @throws SQLException Thrown if the import can't be committed. Nothing is written in this case.
+		 */
+		public void finish() throws SQLException
+		{
+			Rollups.rebuild(db);
+			Migrations.createTotalTriggers(db);
+
+			/* Reloading is cheaper than replaying every imported row */
+			db.afterCommit(RangeTotals::invalidate);
+			db.commit();
+		}
+
+		@Override
+		public void close() throws SQLException
+		{
+			db.close();
+		}
+	}
 }
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.database;
+
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+import baz.timekeeper.core.*;
+
+/**
+ * {@link Interval} is a single change of the time of a {@link Project} on a day. Intervals are append-only, the entries in
+ * <code>historydata</code> are their sums per project and day and are maintained by a trigger. Time tracked by a timer is the period of epoch
+ * seconds it has been running for. All other changes (corrections in the history, imports) are corrections without duration whose seconds
+ * can also be negative. They're placed at the start of their day, for the current day at the time they've been made.
+ *
+ * @author Sebastian Raubach
+ */
+public class Interval extends DatabaseObject
+{
+	public static final String ID         = "id";
+	public static final String PROJECT_ID = "project_id";
+	public static final String DATE       = "date";
+	public static final String START      = "start";
+	public static final String END        = "end";
+	public static final String SECONDS    = "seconds";
+
+	private Project project;
+	/** The day the seconds are booked to as the number of days since 1970-01-01 */
+	private int     epochDay;
+	private long    start;
+	private long    end;
+	private long    seconds;
+
+	public Interval(Integer id)
+	{
+		super(id);
+	}
+
+	public Interval(Integer id, Project project, int epochDay, long start, long end, long seconds)
+	{
+		super(id);
+		this.project = project;
+		this.epochDay = epochDay;
+		this.start = start;
+		this.end = end;
+		this.seconds = seconds;
+	}
+
+	/**
+	 * Returns all {@link Interval}s that overlap the given range, including the corrections within it
+	 *
+	 * @param from The start of the range in epoch seconds (inclusive)
+	 * @param to   The end of the range in epoch seconds (exclusive)
+	 * @return The {@link Interval}s ordered by their start
+	 * @throws SQLException Thrown if the query fails
+	 */
+	public static List<Interval> getBetween(long from, long to) throws SQLException
+	{
+		try (Database db = Database.connect())
+		{
+			List<Interval> all = new ArrayList<>();
+			PreparedStatement stmt = db.preparedStatement("SELECT * FROM `intervals` WHERE `start` < ? AND (`end` > ? OR `end` = `start` AND `start` >= ?) ORDER BY `start`");
+			stmt.setLong(1, to);
+			stmt.setLong(2, from);
+			stmt.setLong(3, from);
+
+			ResultSet rs = stmt.executeQuery();
+
+			while (rs.next())
+			{
+				all.add(parse(rs));
+			}
+
+			return all;
+		}
+	}
+
+	/**
+	 * Returns the total number of seconds per {@link Project} within the given range. {@link Interval}s that overlap the boundaries of the
+	 * range are clipped, corrections count if they're within the range.
+	 *
+	 * @param from The start of the range in epoch seconds (inclusive)
+	 * @param to   The end of the range in epoch seconds (exclusive)
+	 * @return The total number of seconds per {@link Project}
+	 * @throws SQLException Thrown if the query fails
+	 */
+	public static Map<Project, Long> getTotals(long from, long to) throws SQLException
+	{
+		try (Database db = Database.connect())
+		{
+			Map<Project, Long> result = new HashMap<>();
+			PreparedStatement stmt = db.preparedStatement("SELECT `project_id`, SUM(CASE WHEN `end` > `start` THEN MIN(`end`, ?) - MAX(`start`, ?) ELSE `seconds` END) FROM `intervals` WHERE `start` < ? AND (`end` > ? OR `end` = `start` AND `start` >= ?) GROUP BY `project_id`");
+			stmt.setLong(1, to);
+			stmt.setLong(2, from);
+			stmt.setLong(3, to);
+			stmt.setLong(4, from);
+			stmt.setLong(5, from);
+
+			ResultSet rs = stmt.executeQuery();
+
+			while (rs.next())
+			{
+				Project project = ProjectRegistry.get(rs.getInt(1));
+
+				if (project != null)
+					result.put(project, rs.getLong(2));
+			}
+
+			return result;
+		}
+	}
+
+	private static Interval parse(ResultSet rs) throws SQLException
+	{
+		Interval interval = new Interval(rs.getInt(ID))
+				.setProject(ProjectRegistry.get(rs.getInt(PROJECT_ID)))
+				.setEpochDay(rs.getInt(DATE))
+				.setStart(rs.getLong(START))
+				.setEnd(rs.getLong(END))
+				.setSeconds(rs.getLong(SECONDS));
+		interval.markClean();
+		return interval;
+	}
+
+	public Project getProject()
+	{
+		return project;
+	}
+
+	public Interval setProject(Project project)
+	{
+		if (!Objects.equals(this.project, project))
+		{
+			this.project = project;
+			markDirty();
+		}
+
+		return this;
+	}
+
+	/**
+	 * Returns the day the seconds are booked to as the number of days since 1970-01-01
+	 *
+	 * @return The epoch day
+	 */
+	public int getEpochDay()
+	{
+		return epochDay;
+	}
+
+	public Interval setEpochDay(int epochDay)
+	{
+		if (this.epochDay != epochDay)
+		{
+			this.epochDay = epochDay;
+			markDirty();
+		}
+
+		return this;
+	}
+
+	public long getStart()
+	{
+		return start;
+	}
+
+	public Interval setStart(long start)
+	{
+		if (this.start != start)
+		{
+			this.start = start;
+			markDirty();
+		}
+
+		return this;
+	}
+
+	public long getEnd()
+	{
+		return end;
+	}
+
+	public Interval setEnd(long end)
+	{
+		if (this.end != end)
+		{
+			this.end = end;
+			markDirty();
+		}
+
+		return this;
+	}
+
+	public long getDuration()
+	{
+		return end - start;
+	}
+
+	/**
+	 * Returns the number of seconds this {@link Interval} adds to the time of its day. That's its duration for tracked time, corrections have
+	 * no duration and can be negative.
+	 *
+	 * @return The number of seconds
+	 */
+	public long getSeconds()
+	{
+		return seconds;
+	}
+
+	public Interval setSeconds(long seconds)
+	{
+		if (this.seconds != seconds)
+		{
+			this.seconds = seconds;
+			markDirty();
+		}
+
+		return this;
+	}
+
+	@Override
+	public String toString()
+	{
+		return "Interval{" +
+				"project=" + project +
+				", date=" + LocalDate.ofEpochDay(epochDay) +
+				", start=" + start +
+				", end=" + end +
+				", seconds=" + seconds +
+				"} " + super.toString();
+	}
+
+	/**
+	 * Appends this {@link Interval}. {@link Interval}s can't be changed once they've been written, writing one again does nothing.
+	 *
+	 * @throws SQLException Thrown if the write fails
+	 */
+	@Override
+	public void write() throws SQLException
+	{
+		if (Environment.isReadOnly() || id != null)
+			return;
+
+		/* Read the version first, the values can change while they're written */
+		int version = getVersion();
+		int i = 1;
+		try (Database db = Database.connectWriter())
+		{
+			PreparedStatement stmt = db.preparedStatement("INSERT INTO `intervals` (`project_id`, `date`, `start`, `end`, `seconds`) VALUES (?, ?, ?, ?, ?)");
+			stmt.setInt(i++, project.getId());
+			stmt.setLong(i++, epochDay);
+			stmt.setLong(i++, start);
+			stmt.setLong(i++, end);
+			stmt.setLong(i++, seconds);
+			int affectedRows = stmt.executeUpdate();
+
+			if (affectedRows > 0)
+			{
+				try (ResultSet generatedKeys = stmt.getGeneratedKeys())
+				{
+					if (generatedKeys.next())
+					{
+						setGeneratedId(db, generatedKeys.getInt(1));
+					}
+					else
+					{
+						throw new SQLException("Creating item failed, no ID obtained.");
+					}
+				}
+			}
+
+			/* The trigger has changed the entry of the day behind the back of the cached totals */
+			db.afterCommit(RangeTotals::invalidate);
+			markWritten(db, version);
+		}
+		catch (SQLException e)
+		{
+			/* The project (no longer) exists. Nothing has been written, so the interval stays dirty for the caller to see. */
+			if (!Database.isForeignKeyViolation(e))
+				throw e;
+		}
+	}
+}
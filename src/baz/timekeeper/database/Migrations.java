@@ -0,0 +1,311 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.database;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * {@link Migrations} upgrades the database schema in place. The schema version is stored in <code>PRAGMA user_version</code>, every {@link
+ * Migration} whose version is higher than the stored one is applied in order, all of them in a single transaction.
+ * <p>
+ * Databases created before the introduction of migrations have a <code>user_version</code> of 0 and already contain the tables of version 1.
+ *
+ * @author Sebastian Raubach
+ */
+class Migrations
+{
+	/** All migrations, the migration at index i upgrades the schema to version i + 1 */
+	private static final List<Migration> MIGRATIONS = Arrays.asList(
+			Migrations::createInitialSchema,
+			Migrations::addConstraintsAndIndexes,
+			Migrations::useEpochColumns,
+			Migrations::addIntervals,
+			Migrations::addDayTotals,
+			Migrations::addRollups,
+			Migrations::deriveHistoryFromIntervals
+	);
+
+	/** The triggers on <code>historydata</code> that keep <code>daytotals</code> and the rollup tables up to date */
+	private static final List<String> TOTAL_TRIGGERS = Arrays.asList(
+			"historydata_insert_daytotals",
+			"historydata_update_daytotals",
+			"historydata_delete_daytotals",
+			"historydata_insert_rollups",
+			"historydata_update_rollups",
+			"historydata_delete_rollups"
+	);
+
+	/**
+	 * Returns the schema version the application expects
+	 *
+	 * @return The schema version
+	 */
+	static int getLatestVersion()
+	{
+		return MIGRATIONS.size();
+	}
+
+	/**
+	 * Brings the database up to the latest schema version
+	 *
+	 * @throws SQLException Thrown if any of the migrations fails. The database is left at its previous version in this case.
+	 */
+	static void migrate() throws SQLException
+	{
+		try (Database db = Database.connectWriter())
+		{
+			int version = getVersion(db);
+
+			if (version >= getLatestVersion())
+				return;
+
+			/* Tables are rebuilt during migrations, so foreign keys have to be disabled. This can't be done inside a transaction. */
+			db.preparedStatement("PRAGMA foreign_keys = OFF").execute();
+
+			try
+			{
+				/* The nested lease shares the writer connection, closing it rolls back if any migration fails */
+				try (Database transaction = Database.connectWriter())
+				{
+					transaction.beginTransaction();
+
+					for (int i = version; i < MIGRATIONS.size(); i++)
+						MIGRATIONS.get(i).apply(transaction);
+
+					checkForeignKeys(transaction);
+
+					transaction.preparedStatement("PRAGMA user_version = " + getLatestVersion()).execute();
+
+					transaction.commit();
+				}
+			}
+			finally
+			{
+				db.preparedStatement("PRAGMA foreign_keys = ON").execute();
+			}
+		}
+	}
+
+	private static int getVersion(Database db) throws SQLException
+	{
+		try (ResultSet rs = db.preparedStatement("PRAGMA user_version").executeQuery())
+		{
+			return rs.next() ? rs.getInt(1) : 0;
+		}
+	}
+
+	private static void checkForeignKeys(Database db) throws SQLException
+	{
+		try (ResultSet rs = db.preparedStatement("PRAGMA foreign_key_check").executeQuery())
+		{
+			if (rs.next())
+				throw new SQLException("Foreign key violation in table '" + rs.getString(1) + "' after migration.");
+		}
+	}
+
+	/**
+	 * Version 1: The original tables
+	 */
+	private static void createInitialSchema(Database db) throws SQLException
+	{
+		db.preparedStatement("CREATE TABLE IF NOT EXISTS `projects` ( `id` INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, `name` TEXT NOT NULL, `autostart` INTEGER NOT NULL DEFAULT 0, `visibility` INTEGER NOT NULL DEFAULT 1, `position` INTEGER NOT NULL DEFAULT 0);").execute();
+		db.preparedStatement("CREATE TABLE IF NOT EXISTS `historydata` ( `id` INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, `project_id` INTEGER NOT NULL, `date` DATETIME NOT NULL, `time` INTEGER NOT NULL );").execute();
+		db.preparedStatement("CREATE TABLE IF NOT EXISTS `dailylog` (`id` INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, `date` DATETIME NOT NULL, `start` DATETIME NOT NULL, `end` DATETIME NOT NULL );").execute();
+	}
+
+	/**
+	 * Version 2: One history entry per project and day, history entries are deleted with their project and lookups by date are indexed.
+	 * <p>
+	 * SQLite can't add constraints to an existing table, so <code>historydata</code> is rebuilt. Entries of projects that no longer exist are
+	 * dropped and of duplicate entries for the same project and day, only the most recent one (the one the application used to display) is
+	 * kept.
+	 */
+	private static void addConstraintsAndIndexes(Database db) throws SQLException
+	{
+		db.preparedStatement("CREATE TABLE `historydata_new` ( `id` INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, `project_id` INTEGER NOT NULL REFERENCES `projects` (`id`) ON DELETE CASCADE, `date` DATETIME NOT NULL, `time` INTEGER NOT NULL, UNIQUE (`project_id`, `date`) );").execute();
+		db.preparedStatement("INSERT INTO `historydata_new` (`id`, `project_id`, `date`, `time`) SELECT `id`, `project_id`, date(`date`), `time` FROM `historydata` WHERE `id` IN (SELECT MAX(`id`) FROM `historydata` WHERE `project_id` IN (SELECT `id` FROM `projects`) GROUP BY `project_id`, date(`date`))").execute();
+		db.preparedStatement("DROP TABLE `historydata`").execute();
+		db.preparedStatement("ALTER TABLE `historydata_new` RENAME TO `historydata`").execute();
+
+		db.preparedStatement("CREATE INDEX `historydata_date_project` ON `historydata` (`date`, `project_id`)").execute();
+		db.preparedStatement("CREATE INDEX `dailylog_date` ON `dailylog` (`date`)").execute();
+	}
+
+	/**
+	 * Version 3: Days are stored as integer epoch days and points in time as integer epoch seconds, so that lookups can use plain (indexed)
+	 * comparisons instead of evaluating <code>date()</code> on every row.
+	 * <p>
+	 * The old values are local date/time strings, they're converted using the local time zone, just like the application used to parse them.
+	 */
+	private static void useEpochColumns(Database db) throws SQLException
+	{
+		db.preparedStatement("CREATE TABLE `historydata_new` ( `id` INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, `project_id` INTEGER NOT NULL REFERENCES `projects` (`id`) ON DELETE CASCADE, `date` INTEGER NOT NULL, `time` INTEGER NOT NULL, UNIQUE (`project_id`, `date`) );").execute();
+		db.preparedStatement("INSERT INTO `historydata_new` (`id`, `project_id`, `date`, `time`) SELECT `id`, `project_id`, CAST(julianday(date(`date`)) - julianday('1970-01-01') AS INTEGER), `time` FROM `historydata`").execute();
+		db.preparedStatement("DROP TABLE `historydata`").execute();
+		db.preparedStatement("ALTER TABLE `historydata_new` RENAME TO `historydata`").execute();
+		db.preparedStatement("CREATE INDEX `historydata_date_project` ON `historydata` (`date`, `project_id`)").execute();
+
+		db.preparedStatement("CREATE TABLE `dailylog_new` (`id` INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, `date` INTEGER NOT NULL, `start` INTEGER NOT NULL, `end` INTEGER NOT NULL );").execute();
+		db.preparedStatement("INSERT INTO `dailylog_new` (`id`, `date`, `start`, `end`) SELECT `id`, CAST(julianday(date(`date`)) - julianday('1970-01-01') AS INTEGER), CAST(strftime('%s', `start`, 'utc') AS INTEGER), CAST(strftime('%s', `end`, 'utc') AS INTEGER) FROM `dailylog`").execute();
+		db.preparedStatement("DROP TABLE `dailylog`").execute();
+		db.preparedStatement("ALTER TABLE `dailylog_new` RENAME TO `dailylog`").execute();
+		db.preparedStatement("CREATE INDEX `dailylog_date` ON `dailylog` (`date`)").execute();
+	}
+
+	/**
+	 * Version 4: Individual timer runs are recorded as intervals of epoch seconds
+	 */
+	private static void addIntervals(Database db) throws SQLException
+	{
+		db.preparedStatement("CREATE TABLE `intervals` ( `id` INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, `project_id` INTEGER NOT NULL REFERENCES `projects` (`id`) ON DELETE CASCADE, `start` INTEGER NOT NULL, `end` INTEGER NOT NULL, CHECK (`end` >= `start`) );").execute();
+		db.preparedStatement("CREATE INDEX `intervals_start` ON `intervals` (`start`, `project_id`)").execute();
+		db.preparedStatement("CREATE INDEX `intervals_project` ON `intervals` (`project_id`)").execute();
+	}
+
+	/**
+	 * Version 5: The total number of seconds and the number of entries per day are kept in <code>daytotals</code>, maintained by triggers on
+	 * <code>historydata</code>. This allows listing all days of the history without scanning every entry.
+	 */
+	private static void addDayTotals(Database db) throws SQLException
+	{
+		db.preparedStatement("CREATE TABLE `daytotals` ( `date` INTEGER NOT NULL PRIMARY KEY, `total` INTEGER NOT NULL DEFAULT 0, `entries` INTEGER NOT NULL DEFAULT 0 );").execute();
+		db.preparedStatement("INSERT INTO `daytotals` (`date`, `total`, `entries`) SELECT `date`, SUM(`time`), COUNT(*) FROM `historydata` GROUP BY `date`").execute();
+
+		createDayTotalTriggers(db);
+	}
+
+	/**
+	 * Version 6: The total number of seconds per project and ISO week, month and year are kept in rollup tables (see {@link Rollups}),
+	 * maintained by triggers on <code>historydata</code>. Rows whose total drops to zero are removed.
+	 */
+	private static void addRollups(Database db) throws SQLException
+	{
+		for (Rollups.Period period : Rollups.Period.values())
+		{
+			String table = "`" + period.table + "`";
+			String column = "`" + period.column + "`";
+
+			db.preparedStatement("CREATE TABLE " + table + " ( " + column + " INTEGER NOT NULL, `project_id` INTEGER NOT NULL REFERENCES `projects` (`id`) ON DELETE CASCADE, `total` INTEGER NOT NULL DEFAULT 0, PRIMARY KEY (" + column + ", `project_id`) ) WITHOUT ROWID;").execute();
+			db.preparedStatement("CREATE INDEX `" + period.table + "_project` ON " + table + " (`project_id`)").execute();
+		}
+
+		createRollupTriggers(db);
+
+		Rollups.rebuild(db);
+	}
+
+	/**
+	 * Version 7: Every change of the time of a project on a day is appended to <code>intervals</code>, <code>historydata</code> holds their
+	 * sums per project and day and is maintained by a trigger. Updating an interval is an error. The existing timer runs are booked to the
+	 * day they started on, whatever they don't account for is carried over as a correction without duration at the start of the day.
+	 */
+	private static void deriveHistoryFromIntervals(Database db) throws SQLException
+	{
+		String hDayStart = getDayStart("h.`date`");
+		String iDayStart = getDayStart("i.`date`");
+
+		db.preparedStatement("CREATE TABLE `intervals_new` ( `id` INTEGER NOT NULL PRIMARY KEY AUTOINCREMENT, `project_id` INTEGER NOT NULL REFERENCES `projects` (`id`) ON DELETE CASCADE, `date` INTEGER NOT NULL, `start` INTEGER NOT NULL, `end` INTEGER NOT NULL, `seconds` INTEGER NOT NULL, CHECK (`end` >= `start`) );").execute();
+		db.preparedStatement("INSERT INTO `intervals_new` (`id`, `project_id`, `date`, `start`, `end`, `seconds`) SELECT `id`, `project_id`, CAST(julianday(date(`start`, 'unixepoch', 'localtime')) - julianday('1970-01-01') AS INTEGER), `start`, `end`, `end` - `start` FROM `intervals`").execute();
+		db.preparedStatement("INSERT INTO `intervals_new` (`project_id`, `date`, `start`, `end`, `seconds`) SELECT h.`project_id`, h.`date`, " + hDayStart + ", " + hDayStart + ", h.`time` - IFNULL(i.`seconds`, 0) FROM `historydata` h LEFT JOIN (SELECT `project_id`, `date`, SUM(`seconds`) AS `seconds` FROM `intervals_new` GROUP BY `project_id`, `date`) i ON i.`project_id` = h.`project_id` AND i.`date` = h.`date` WHERE h.`time` != IFNULL(i.`seconds`, 0)").execute();
+		db.preparedStatement("INSERT INTO `intervals_new` (`project_id`, `date`, `start`, `end`, `seconds`) SELECT i.`project_id`, i.`date`, " + iDayStart + ", " + iDayStart + ", -SUM(i.`seconds`) FROM `intervals_new` i WHERE NOT EXISTS (SELECT 1 FROM `historydata` h WHERE h.`project_id` = i.`project_id` AND h.`date` = i.`date`) GROUP BY i.`project_id`, i.`date` HAVING SUM(i.`seconds`) != 0").execute();
+		db.preparedStatement("DROP TABLE `intervals`").execute();
+		db.preparedStatement("ALTER TABLE `intervals_new` RENAME TO `intervals`").execute();
+		db.preparedStatement("CREATE INDEX `intervals_start` ON `intervals` (`start`, `project_id`)").execute();
+		db.preparedStatement("CREATE INDEX `intervals_project_date` ON `intervals` (`project_id`, `date`)").execute();
+
+		db.preparedStatement("CREATE TRIGGER `intervals_insert_historydata` AFTER INSERT ON `intervals` BEGIN "
+				+ "INSERT INTO `historydata` (`project_id`, `date`, `time`) VALUES (NEW.`project_id`, NEW.`date`, NEW.`seconds`) ON CONFLICT (`project_id`, `date`) DO UPDATE SET `time` = `time` + NEW.`seconds`; "
+				+ "END").execute();
+		db.preparedStatement("CREATE TRIGGER `intervals_update` BEFORE UPDATE ON `intervals` BEGIN "
+				+ "SELECT RAISE(ABORT, 'Intervals are append-only'); "
+				+ "END").execute();
+	}
+
+	/**
+	 * Returns the SQL expression for the epoch second of local midnight of the given epoch day, see {@link DatabaseObject#getDayStart(long)}
+	 */
+	private static String getDayStart(String epochDay)
+	{
+		return "CAST(strftime('%s', date(" + epochDay + " + 2440587.5), 'utc') AS INTEGER)";
+	}
+
+	/**
+	 * Drops the triggers that maintain <code>daytotals</code> and the rollup tables. Meant for bulk imports, which rebuild the totals once
+	 * via {@link Rollups#rebuild(Database)} and then call {@link #createTotalTriggers(Database)} in the same transaction.
+	 */
+	static void dropTotalTriggers(Database db) throws SQLException
+	{
+		for (String trigger : TOTAL_TRIGGERS)
+			db.preparedStatement("DROP TRIGGER IF EXISTS `" + trigger + "`").execute();
+	}
+
+	/**
+	 * Creates the triggers that maintain <code>daytotals</code> and the rollup tables of the latest schema version
+	 */
+	static void createTotalTriggers(Database db) throws SQLException
+	{
+		createDayTotalTriggers(db);
+		createRollupTriggers(db);
+	}
+
+	private static void createDayTotalTriggers(Database db) throws SQLException
+	{
+		db.preparedStatement("CREATE TRIGGER `historydata_insert_daytotals` AFTER INSERT ON `historydata` BEGIN "
+				+ "INSERT INTO `daytotals` (`date`, `total`, `entries`) VALUES (NEW.`date`, NEW.`time`, 1) ON CONFLICT (`date`) DO UPDATE SET `total` = `total` + NEW.`time`, `entries` = `entries` + 1; "
+				+ "END").execute();
+		db.preparedStatement("CREATE TRIGGER `historydata_update_daytotals` AFTER UPDATE OF `date`, `time` ON `historydata` BEGIN "
+				+ "UPDATE `daytotals` SET `total` = `total` - OLD.`time`, `entries` = `entries` - 1 WHERE `date` = OLD.`date`; "
+				+ "INSERT INTO `daytotals` (`date`, `total`, `entries`) VALUES (NEW.`date`, NEW.`time`, 1) ON CONFLICT (`date`) DO UPDATE SET `total` = `total` + NEW.`time`, `entries` = `entries` + 1; "
+				+ "DELETE FROM `daytotals` WHERE `date` = OLD.`date` AND `entries` = 0; "
+				+ "END").execute();
+		db.preparedStatement("CREATE TRIGGER `historydata_delete_daytotals` AFTER DELETE ON `historydata` BEGIN "
+				+ "UPDATE `daytotals` SET `total` = `total` - OLD.`time`, `entries` = `entries` - 1 WHERE `date` = OLD.`date`; "
+				+ "DELETE FROM `daytotals` WHERE `date` = OLD.`date` AND `entries` = 0; "
+				+ "END").execute();
+	}
+
+	private static void createRollupTriggers(Database db) throws SQLException
+	{
+		StringBuilder insert = new StringBuilder();
+		StringBuilder delete = new StringBuilder();
+
+		for (Rollups.Period period : Rollups.Period.values())
+		{
+			String table = "`" + period.table + "`";
+			String column = "`" + period.column + "`";
+
+			insert.append("INSERT INTO ").append(table).append(" (").append(column).append(", `project_id`, `total`) VALUES (").append(period.getKey("NEW.`date`")).append(", NEW.`project_id`, NEW.`time`) ON CONFLICT (").append(column).append(", `project_id`) DO UPDATE SET `total` = `total` + NEW.`time`; ");
+
+			String where = " WHERE " + column + " = " + period.getKey("OLD.`date`") + " AND `project_id` = OLD.`project_id`";
+			delete.append("UPDATE ").append(table).append(" SET `total` = `total` - OLD.`time`").append(where).append("; ");
+			delete.append("DELETE FROM ").append(table).append(where).append(" AND `total` = 0; ");
+		}
+
+		db.preparedStatement("CREATE TRIGGER `historydata_insert_rollups` AFTER INSERT ON `historydata` BEGIN " + insert + "END").execute();
+		db.preparedStatement("CREATE TRIGGER `historydata_update_rollups` AFTER UPDATE OF `project_id`, `date`, `time` ON `historydata` BEGIN " + delete + insert + "END").execute();
+		db.preparedStatement("CREATE TRIGGER `historydata_delete_rollups` AFTER DELETE ON `historydata` BEGIN " + delete + "END").execute();
+	}
+
+	/**
+	 * A single schema upgrade step
+	 */
+	private interface Migration
+	{
+		void apply(Database db) throws SQLException;
+	}
+}
@@ -0,0 +1,387 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.database;
+
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * {@link PersistenceExecutor} runs all database writes on a single background thread, so that the UI thread never has to wait for SQLite.
+ * <p>
+ * Commands are queued in a bounded queue and coalesced per key: submitting a write for an entity that is already waiting to be written doesn't
+ * add another command. Everything that is pending when the worker wakes up is executed in a single transaction. Completion callbacks are
+ * handed to the callback {@link Executor}, which the UI sets to <code>Display#asyncExec</code>.
+ *
+ * @author Sebastian Raubach
+ */
+public class PersistenceExecutor
+{
+	/** The maximum number of distinct pending commands, submitting more blocks until the worker catches up */
+	private static final int CAPACITY = 1024;
+
+	private static PersistenceExecutor INSTANCE;
+
+	private final Map<Key, Command> pending = new LinkedHashMap<>();
+	private final Thread            worker;
+	private volatile Executor       callbackExecutor = Runnable::run;
+	private          boolean        shutdown         = false;
+
+	private PersistenceExecutor()
+	{
+		worker = new Thread(this::run, "timekeeper-persistence");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/**
+	 * Returns the {@link PersistenceExecutor}, starting it if necessary
+	 *
+	 * @return The {@link PersistenceExecutor}
+	 */
+	public static synchronized PersistenceExecutor getInstance()
+	{
+		if (INSTANCE == null)
+			INSTANCE = new PersistenceExecutor();
+
+		return INSTANCE;
+	}
+
+	/**
+	 * Sets the {@link Executor} that runs completion callbacks, e.g. <code>Display#asyncExec</code>
+	 *
+	 * @param callbackExecutor The {@link Executor}
+	 */
+	public void setCallbackExecutor(Executor callbackExecutor)
+	{
+		this.callbackExecutor = callbackExecutor;
+	}
+
+	/**
+	 * Queues a write of the given {@link DatabaseObject}. The object is only written if it's still dirty when the command is executed.
+	 *
+	 * @param object The {@link DatabaseObject} to write
+	 */
+	public void submitWrite(DatabaseObject object)
+	{
+		submitWrite(object, null);
+	}
+
+	/**
+	 * Queues a write of the given {@link DatabaseObject}. The object is only written if it's still dirty when the command is executed.
+	 *
+	 * @param object   The {@link DatabaseObject} to write
+	 * @param callback Run via the callback {@link Executor} once the write has been committed. Can be <code>null</code>.
+	 */
+	public void submitWrite(DatabaseObject object, Runnable callback)
+	{
+		submit(object, () -> FlushCoordinator.flush(Collections.singletonList(object)), callback);
+	}
+
+	/**
+	 * Queues writes of all given {@link DatabaseObject}s
+	 *
+	 * @param objects The {@link DatabaseObject}s to write
+	 */
+	public void submitWrites(Collection<? extends DatabaseObject> objects)
+	{
+		for (DatabaseObject object : objects)
+		{
+			if (object != null && object.isDirty())
+				submitWrite(object);
+		}
+	}
+
+	/**
+	 * Queues an arbitrary database command. If a command with the same key is still pending, it's replaced by this one.
+	 *
+	 * @param key      The key used to coalesce commands. Keys are compared by identity.
+	 * @param task     The command
+	 * @param callback Run via the callback {@link Executor} once the command has been committed. Can be <code>null</code>.
+	 */
+	public void submit(Object key, Task task, Runnable callback)
+	{
+		submit(key, task, null, callback);
+	}
+
+	/**
+	 * Queues an arbitrary database command. If a command with the same key is still pending, it's replaced by this one.
+	 *
+	 * @param key       The key used to coalesce commands. Keys are compared by identity.
+	 * @param task      The command
+	 * @param committed Run on the persistence thread right after the command has been committed, before any callback. Unlike the callback, it
+	 *                  also runs if the application exits right afterwards. Can be <code>null</code>.
+	 * @param callback  Run via the callback {@link Executor} once the command has been committed. Can be <code>null</code>.
+	 */
+	public void submit(Object key, Task task, Runnable committed, Runnable callback)
+	{
+		Key k = new Key(key);
+
+		synchronized (pending)
+		{
+			if (shutdown)
+				throw new IllegalStateException("The persistence executor has been shut down.");
+
+			/* Wait for space in the queue unless the command can be coalesced */
+			while (pending.size() >= CAPACITY && !pending.containsKey(k))
+			{
+				try
+				{
+					pending.wait();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+
+			Command command = pending.get(k);
+
+			if (command == null)
+			{
+				command = new Command();
+				pending.put(k, command);
+			}
+
+			command.task = task;
+			if (committed != null)
+				command.committed.add(committed);
+			if (callback != null)
+				command.callbacks.add(callback);
+
+			pending.notifyAll();
+		}
+	}
+
+	/**
+	 * Runs the given callback via the callback {@link Executor} once all commands that have been submitted so far have been executed
+	 *
+	 * @param callback The callback
+	 */
+	public void runAfterPending(Runnable callback)
+	{
+		submit(new Object(), () -> {
+		}, callback);
+	}
+
+	/**
+	 * Executes all pending commands and stops the worker thread
+	 *
+	 * @param timeoutMillis The maximum time to wait for pending commands
+	 * @return <code>true</code> if all pending commands have been executed
+	 */
+	public static boolean shutdown(long timeoutMillis)
+	{
+		PersistenceExecutor executor;
+
+		synchronized (PersistenceExecutor.class)
+		{
+			executor = INSTANCE;
+			INSTANCE = null;
+		}
+
+		if (executor == null)
+			return true;
+
+		synchronized (executor.pending)
+		{
+			executor.shutdown = true;
+			executor.pending.notifyAll();
+		}
+
+		try
+		{
+			executor.worker.join(timeoutMillis);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+
+		return !executor.worker.isAlive();
+	}
+
+	private void run()
+	{
+		while (true)
+		{
+			List<Command> commands;
+
+			synchronized (pending)
+			{
+				while (pending.isEmpty() && !shutdown)
+				{
+					try
+					{
+						pending.wait();
+					}
+					catch (InterruptedException e)
+					{
+						/* Keep going until we're shut down */
+					}
+				}
+
+				if (pending.isEmpty())
+					return;
+
+				commands = new ArrayList<>(pending.values());
+				pending.clear();
+				pending.notifyAll();
+			}
+
+			try
+			{
+				execute(commands);
+			}
+			catch (RuntimeException e)
+			{
+				/* Never let the worker die, submit() would block forever once the queue is full */
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void execute(List<Command> commands)
+	{
+		List<Command> committed = new ArrayList<>();
+
+		try (Database db = Database.connectWriter())
+		{
+			db.beginTransaction();
+
+			/* Every command runs in its own savepoint, so a failing one is rolled back on its own. The objects it has changed restore themselves. */
+			for (Command command : commands)
+			{
+				Database.Checkpoint checkpoint = db.setCheckpoint();
+
+				try
+				{
+					command.task.run();
+					db.release(checkpoint);
+					committed.add(command);
+				}
+				catch (SQLException | RuntimeException e)
+				{
+					db.rollback(checkpoint);
+					e.printStackTrace();
+				}
+			}
+
+			db.commit();
+		}
+		catch (SQLException e)
+		{
+			/* The transaction itself failed. Everything has been rolled back and all objects have been restored, so run the commands one by one. */
+			e.printStackTrace();
+
+			for (Command command : commands)
+				executeAlone(command);
+
+			return;
+		}
+
+		committed.forEach(this::complete);
+	}
+
+	private void executeAlone(Command command)
+	{
+		try
+		{
+			try (Database db = Database.connectWriter())
+			{
+				db.beginTransaction();
+				command.task.run();
+				db.commit();
+			}
+
+			complete(command);
+		}
+		catch (SQLException | RuntimeException e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	private void complete(Command command)
+	{
+		for (Runnable committed : command.committed)
+		{
+			try
+			{
+				committed.run();
+			}
+			catch (RuntimeException e)
+			{
+				e.printStackTrace();
+			}
+		}
+
+		for (Runnable callback : command.callbacks)
+		{
+			try
+			{
+				callbackExecutor.execute(callback);
+			}
+			catch (RuntimeException e)
+			{
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * A database command that is run on the persistence thread
+	 */
+	public interface Task
+	{
+		void run() throws SQLException;
+	}
+
+	private static class Command
+	{
+		private Task           task;
+		private List<Runnable> committed = new ArrayList<>();
+		private List<Runnable> callbacks = new ArrayList<>();
+	}
+
+	/**
+	 * Wraps a key object so that it's compared by identity. {@link HistoryData#hashCode()} changes once an id has been assigned, so the keys'
+	 * own {@link #equals(Object)} can't be used.
+	 */
+	private static class Key
+	{
+		private final Object object;
+
+		private Key(Object object)
+		{
+			this.object = object;
+		}
+
+		@Override
+		public boolean equals(Object o)
+		{
+			return o instanceof Key && ((Key) o).object == object;
+		}
+
+		@Override
+		public int hashCode()
+		{
+			return System.identityHashCode(object);
+		}
+	}
+}
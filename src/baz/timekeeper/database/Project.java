@@ -19,7 +19,7 @@ package baz.timekeeper.database;
 import java.sql.*;
 import java.util.*;
 
-import baz.timekeeper.*;
+import baz.timekeeper.core.*;
 
 /**
  * @author Sebastian Raubach
@@ -51,7 +51,29 @@ public class Project extends DatabaseObject
 		this.position = position;
 	}
 
+	/**
+	 * Creates a copy of the given {@link Project}
+	 *
+	 * @param other The {@link Project} to copy
+	 */
+	public Project(Project other)
+	{
+		super(other.getId());
+		copyFrom(other);
+	}
+
+	/**
+	 * Returns all {@link Project}s. The instances are the canonical ones held by the {@link ProjectRegistry}.
+	 *
+	 * @return All {@link Project}s
+	 * @throws SQLException Thrown if the projects can't be loaded
+	 */
 	public static List<Project> getAll() throws SQLException
+	{
+		return ProjectRegistry.getAll();
+	}
+
+	static List<Project> queryAll() throws SQLException
 	{
 		try (Database db = Database.connect())
 		{
@@ -71,31 +93,25 @@ public class Project extends DatabaseObject
 
 	private static Project parse(ResultSet rs) throws SQLException
 	{
-		return new Project(rs.getInt(ID))
+		Project project = new Project(rs.getInt(ID))
 				.setName(rs.getString(NAME))
 				.setAutostart(rs.getBoolean(AUTOSTART))
 				.setVisibility(rs.getBoolean(VISIBILITY))
 				.setPosition(rs.getInt(POSITION));
+		project.markClean();
+		return project;
 	}
 
+	/**
+	 * Returns the canonical {@link Project} with the given id. No database query is run once the {@link ProjectRegistry} has been loaded.
+	 *
+	 * @param id The id of the {@link Project}
+	 * @return The {@link Project} or <code>null</code> if there is no such {@link Project}
+	 * @throws SQLException Thrown if the projects can't be loaded
+	 */
 	public static Project getById(int id) throws SQLException
 	{
-		try (Database db = Database.connect())
-		{
-			PreparedStatement stmt = db.preparedStatement("SELECT * FROM `projects` WHERE `id` = ?");
-			stmt.setInt(1, id);
-
-			ResultSet rs = stmt.executeQuery();
-
-			if (rs.next())
-			{
-				return parse(rs);
-			}
-			else
-			{
-				return null;
-			}
-		}
+		return ProjectRegistry.get(id);
 	}
 
 	public static int getMaxPosition()
@@ -139,7 +155,12 @@ public class Project extends DatabaseObject
 
 	public Project setName(String name)
 	{
-		this.name = name;
+		if (!Objects.equals(this.name, name))
+		{
+			this.name = name;
+			markDirty();
+		}
+
 		return this;
 	}
 
@@ -150,7 +171,12 @@ public class Project extends DatabaseObject
 
 	public Project setAutostart(boolean autostart)
 	{
-		this.autostart = autostart;
+		if (this.autostart != autostart)
+		{
+			this.autostart = autostart;
+			markDirty();
+		}
+
 		return this;
 	}
 
@@ -161,7 +187,12 @@ public class Project extends DatabaseObject
 
 	public Project setVisibility(boolean visibility)
 	{
-		this.visibility = visibility;
+		if (this.visibility != visibility)
+		{
+			this.visibility = visibility;
+			markDirty();
+		}
+
 		return this;
 	}
 
@@ -172,10 +203,30 @@ public class Project extends DatabaseObject
 
 	public Project setPosition(int position)
 	{
-		this.position = position;
+		if (this.position != position)
+		{
+			this.position = position;
+			markDirty();
+		}
+
 		return this;
 	}
 
+	void copyFrom(Project other)
+	{
+		this.name = other.name;
+		this.autostart = other.autostart;
+		this.visibility = other.visibility;
+		this.position = other.position;
+	}
+
+	@Override
+	protected boolean isNew()
+	{
+		/* New projects created in the settings dialog have a negative id */
+		return id == null || id < 0;
+	}
+
 	@Override
 	public String toString()
 	{
@@ -189,16 +240,26 @@ public class Project extends DatabaseObject
 
 	public boolean remove() throws SQLException
 	{
-		if (Timekeeper.READ_ONLY_MODE)
+		if (Environment.isReadOnly())
 			return false;
 
 		if (id != null && id >= 0)
 		{
-			try (Database db = Database.connect())
+			try (Database db = Database.connectWriter())
 			{
 				PreparedStatement stmt = db.preparedStatement("DELETE FROM `projects` WHERE id = ?");
 				stmt.setInt(1, id);
-				return stmt.execute();
+				boolean result = stmt.execute();
+
+				/* The project still exists if the transaction is rolled back */
+				int removed = id;
+				db.afterCommit(() ->
+				{
+					ProjectRegistry.remove(removed);
+					RangeTotals.onProjectRemoved(this);
+				});
+
+				return result;
 			}
 		}
 		else
@@ -207,15 +268,18 @@ public class Project extends DatabaseObject
 		}
 	}
 
+	@Override
 	public void write() throws SQLException
 	{
-		if (Timekeeper.READ_ONLY_MODE)
+		if (Environment.isReadOnly())
 			return;
 
+		/* Read the version first, the values can change while they're written */
+		int version = getVersion();
 		int i = 1;
-		if (id == null || id < 0)
+		try (Database db = Database.connectWriter())
 		{
-			try (Database db = Database.connect())
+			if (id == null || id < 0)
 			{
 				PreparedStatement stmt = db.preparedStatement("INSERT INTO `projects` (`name`, `autostart`, `visibility`, `position`) VALUES (?, ?, ?, ?)");
 				stmt.setString(i++, name);
@@ -230,7 +294,7 @@ public class Project extends DatabaseObject
 					{
 						if (generatedKeys.next())
 						{
-							setId(generatedKeys.getInt(1));
+							setGeneratedId(db, generatedKeys.getInt(1));
 						}
 						else
 						{
@@ -239,10 +303,7 @@ public class Project extends DatabaseObject
 					}
 				}
 			}
-		}
-		else
-		{
-			try (Database db = Database.connect())
+			else
 			{
 				PreparedStatement stmt = db.preparedStatement("UPDATE `projects` SET `name` = ?, `autostart` = ?, `visibility` = ?, `position` = ? WHERE `id` = ?");
 				stmt.setString(i++, name);
@@ -252,6 +313,11 @@ public class Project extends DatabaseObject
 				stmt.setInt(i++, id);
 				stmt.executeUpdate();
 			}
+
+			markWritten(db, version);
+
+			/* Only share the project once it actually exists */
+			db.afterCommit(() -> ProjectRegistry.update(this));
 		}
 	}
 }
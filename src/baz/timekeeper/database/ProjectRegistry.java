@@ -0,0 +1,114 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.database;
+
+import java.sql.*;
+import java.util.*;
+
+/**
+ * {@link ProjectRegistry} is an identity map of all {@link Project}s. The projects table is loaded once, after which every lookup is served from
+ * memory and always returns the same canonical {@link Project} instance for a given id.
+ * <p>
+ * The registry is kept up to date by {@link Project#write()} and {@link Project#remove()}. Callers that want to edit {@link Project}s without
+ * affecting the rest of the application (e.g. in a dialog that can be cancelled) should work on copies created via {@link
+ * Project#Project(Project)}.
+ *
+ * @author Sebastian Raubach
+ */
+public class ProjectRegistry
+{
+	private static final Map<Integer, Project> PROJECTS = new LinkedHashMap<>();
+	private static       boolean               loaded   = false;
+
+	/**
+	 * Returns the canonical {@link Project} with the given id
+	 *
+	 * @param id The id of the {@link Project}
+	 * @return The {@link Project} or <code>null</code> if there is no such {@link Project}
+	 * @throws SQLException Thrown if the registry has to be loaded and the query fails
+	 */
+	public static synchronized Project get(int id) throws SQLException
+	{
+		ensureLoaded();
+
+		return PROJECTS.get(id);
+	}
+
+	/**
+	 * Returns all canonical {@link Project}s. The returned {@link List} is a copy and can be modified (e.g. sorted) by the caller.
+	 *
+	 * @return All {@link Project}s
+	 * @throws SQLException Thrown if the registry has to be loaded and the query fails
+	 */
+	public static synchronized List<Project> getAll() throws SQLException
+	{
+		ensureLoaded();
+
+		return new ArrayList<>(PROJECTS.values());
+	}
+
+	/**
+	 * Forgets all cached {@link Project}s. The next lookup will reload them from the database.
+	 */
+	public static synchronized void invalidate()
+	{
+		PROJECTS.clear();
+		loaded = false;
+	}
+
+	/**
+	 * Called after a {@link Project} has been written. If there is a canonical instance for the id, the new values are copied into it, so that
+	 * everybody holding on to the canonical instance sees the change. Otherwise the given {@link Project} becomes the canonical instance.
+	 *
+	 * @param project The {@link Project} that has been written
+	 */
+	static synchronized void update(Project project)
+	{
+		if (!loaded)
+			return;
+
+		Project canonical = PROJECTS.get(project.getId());
+
+		if (canonical == null)
+			PROJECTS.put(project.getId(), project);
+		else if (canonical != project)
+			canonical.copyFrom(project);
+	}
+
+	/**
+	 * Called after a {@link Project} has been removed from the database
+	 *
+	 * @param id The id of the removed {@link Project}
+	 */
+	static synchronized void remove(int id)
+	{
+		PROJECTS.remove(id);
+	}
+
+	private static void ensureLoaded() throws SQLException
+	{
+		if (!loaded)
+		{
+			PROJECTS.clear();
+
+			for (Project project : Project.queryAll())
+				PROJECTS.put(project.getId(), project);
+
+			loaded = true;
+		}
+	}
+}
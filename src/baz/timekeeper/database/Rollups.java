@@ -0,0 +1,339 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.database;
+
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+import baz.timekeeper.core.*;
+
+/**
+ * {@link Rollups} answers questions like "how much time has been spent on each project this quarter" without reading every history entry. The
+ * totals per {@link Project} and ISO week, month and year are kept in rollup tables, which are maintained by triggers whenever
+ * <code>historydata</code> changes.
+ * <p>
+ * A range of days is split into as many whole years as possible, then whole months, then whole weeks, and only the remaining days at either
+ * end (fewer than a week each) are read from <code>historydata</code>. A range total therefore costs a handful of rows per {@link Project},
+ * however long the history is.
+ *
+ * @author Sebastian Raubach
+ */
+public class Rollups
+{
+	/**
+	 * Returns the total number of seconds tracked per {@link Project} between the given days
+	 *
+	 * @param from The first day (inclusive)
+	 * @param to   The last day (inclusive)
+	 * @return The total number of seconds per {@link Project}. {@link Project}s without any time aren't included.
+	 * @throws SQLException Thrown if the query fails
+	 */
+	public static Map<Project, Long> getTotals(LocalDate from, LocalDate to) throws SQLException
+	{
+		return getTotals(from.toEpochDay(), to.toEpochDay());
+	}
+
+	/**
+	 * Returns the total number of seconds tracked per {@link Project} between the given days
+	 *
+	 * @param fromEpochDay The first day (inclusive)
+	 * @param toEpochDay   The last day (inclusive)
+	 * @return The total number of seconds per {@link Project}. {@link Project}s without any time aren't included.
+	 * @throws SQLException Thrown if the query fails
+	 */
+	public static Map<Project, Long> getTotals(long fromEpochDay, long toEpochDay) throws SQLException
+	{
+		Map<Project, Long> result = new HashMap<>();
+
+		if (fromEpochDay > toEpochDay)
+			return result;
+
+		List<Range> ranges = new ArrayList<>();
+		decompose(LocalDate.ofEpochDay(fromEpochDay), LocalDate.ofEpochDay(toEpochDay), 0, ranges);
+
+		try (Database db = Database.connect())
+		{
+			PreparedStatement stmt = prepare(db, ranges, null);
+
+			ResultSet rs = stmt.executeQuery();
+
+			while (rs.next())
+			{
+				Project project = ProjectRegistry.get(rs.getInt(1));
+
+				if (project != null && rs.getLong(2) != 0)
+					result.put(project, rs.getLong(2));
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Returns the total number of seconds tracked for the given {@link Project} between the given days
+	 *
+	 * @param project      The {@link Project}
+	 * @param fromEpochDay The first day (inclusive)
+	 * @param toEpochDay   The last day (inclusive)
+	 * @return The total number of seconds
+	 * @throws SQLException Thrown if the query fails
+	 */
+	public static long getTotal(Project project, long fromEpochDay, long toEpochDay) throws SQLException
+	{
+		if (fromEpochDay > toEpochDay || project.getId() == null)
+			return 0;
+
+		List<Range> ranges = new ArrayList<>();
+		decompose(LocalDate.ofEpochDay(fromEpochDay), LocalDate.ofEpochDay(toEpochDay), 0, ranges);
+
+		try (Database db = Database.connect())
+		{
+			PreparedStatement stmt = prepare(db, ranges, project);
+
+			ResultSet rs = stmt.executeQuery();
+
+			return rs.next() ? rs.getLong(2) : 0;
+		}
+	}
+
+	/**
+	 * Recalculates all rollups (and the per-day totals) from <code>historydata</code>
+	 *
+	 * @throws SQLException Thrown if the rollups can't be written. They're left unchanged in this case.
+	 */
+	public static void rebuild() throws SQLException
+	{
+		if (Environment.isReadOnly())
+			return;
+
+		try (Database db = Database.connectWriter())
+		{
+			db.beginTransaction();
+			rebuild(db);
+			db.commit();
+		}
+	}
+
+	static void rebuild(Database db) throws SQLException
+	{
+		db.preparedStatement("DELETE FROM `daytotals`").execute();
+		db.preparedStatement("INSERT INTO `daytotals` (`date`, `total`, `entries`) SELECT `date`, SUM(`time`), COUNT(*) FROM `historydata` GROUP BY `date`").execute();
+
+		for (Period period : Period.values())
+		{
+			db.preparedStatement("DELETE FROM `" + period.table + "`").execute();
+			db.preparedStatement("INSERT INTO `" + period.table + "` (`" + period.column + "`, `project_id`, `total`) SELECT " + period.getKey("`date`") + ", `project_id`, SUM(`time`) FROM `historydata` GROUP BY 1, 2").execute();
+		}
+	}
+
+	/**
+	 * Splits the days between from and to (inclusive) into whole periods, starting with the largest one
+	 */
+	private static void decompose(LocalDate from, LocalDate to, int level, List<Range> ranges)
+	{
+		if (from.isAfter(to))
+			return;
+
+		if (level == Period.values().length)
+		{
+			/* Fewer than 7 days, read them from the history itself */
+			ranges.add(new Range("historydata", "date", "time", from.toEpochDay(), to.toEpochDay()));
+			return;
+		}
+
+		Period period = Period.values()[level];
+
+		LocalDate first = period.getStart(from);
+		if (first.isBefore(from))
+			first = period.getNext(first);
+		/* The start of the period that contains the day after the range, i.e. the end of the last whole period */
+		LocalDate end = period.getStart(to.plusDays(1));
+
+		if (!first.isBefore(end))
+		{
+			/* Not a single whole period */
+			decompose(from, to, level + 1, ranges);
+			return;
+		}
+
+		ranges.add(new Range(period.table, period.column, "total", period.getKey(first), period.getKey(period.getStart(end.minusDays(1)))));
+
+		decompose(from, first.minusDays(1), level + 1, ranges);
+		decompose(end, to, level + 1, ranges);
+	}
+
+	private static PreparedStatement prepare(Database db, List<Range> ranges, Project project) throws SQLException
+	{
+		StringBuilder builder = new StringBuilder("SELECT `project_id`, SUM(`value`) FROM (");
+
+		for (int i = 0; i < ranges.size(); i++)
+		{
+			Range range = ranges.get(i);
+
+			if (i > 0)
+				builder.append(" UNION ALL ");
+
+			builder.append("SELECT `project_id`, `").append(range.value).append("` AS `value` FROM `").append(range.table).append("` WHERE `").append(range.column).append("` BETWEEN ? AND ?");
+
+			if (project != null)
+				builder.append(" AND `project_id` = ?");
+		}
+
+		builder.append(") GROUP BY `project_id`");
+
+		PreparedStatement stmt = db.preparedStatement(builder.toString());
+
+		int i = 1;
+		for (Range range : ranges)
+		{
+			stmt.setLong(i++, range.from);
+			stmt.setLong(i++, range.to);
+
+			if (project != null)
+				stmt.setInt(i++, project.getId());
+		}
+
+		return stmt;
+	}
+
+	/**
+	 * The periods that are rolled up, from the largest to the smallest
+	 */
+	enum Period
+	{
+		/** Keyed by the year */
+		YEAR("yearlytotals", "year", "CAST(strftime('%%Y', %s * 86400, 'unixepoch') AS INTEGER)")
+			{
+				@Override
+				LocalDate getStart(LocalDate day)
+				{
+					return day.withDayOfYear(1);
+				}
+
+				@Override
+				LocalDate getNext(LocalDate start)
+				{
+					return start.plusYears(1);
+				}
+
+				@Override
+				long getKey(LocalDate start)
+				{
+					return start.getYear();
+				}
+			},
+		/** Keyed by <code>year * 100 + month</code> */
+		MONTH("monthlytotals", "month", "CAST(strftime('%%Y%%m', %s * 86400, 'unixepoch') AS INTEGER)")
+			{
+				@Override
+				LocalDate getStart(LocalDate day)
+				{
+					return day.withDayOfMonth(1);
+				}
+
+				@Override
+				LocalDate getNext(LocalDate start)
+				{
+					return start.plusMonths(1);
+				}
+
+				@Override
+				long getKey(LocalDate start)
+				{
+					return start.getYear() * 100L + start.getMonthValue();
+				}
+			},
+		/** Keyed by the epoch day of the Monday of the ISO week. Epoch day 0 is a Thursday. */
+		WEEK("weeklytotals", "week", "(%1$s - ((%1$s %% 7) + 10) %% 7)")
+			{
+				@Override
+				LocalDate getStart(LocalDate day)
+				{
+					return day.minusDays(day.getDayOfWeek().getValue() - 1);
+				}
+
+				@Override
+				LocalDate getNext(LocalDate start)
+				{
+					return start.plusWeeks(1);
+				}
+
+				@Override
+				long getKey(LocalDate start)
+				{
+					return start.toEpochDay();
+				}
+			};
+
+		final String table;
+		final String column;
+		/** The SQL expression that calculates the key from an epoch day, as a format string */
+		final String key;
+
+		Period(String table, String column, String key)
+		{
+			this.table = table;
+			this.column = column;
+			this.key = key;
+		}
+
+		/**
+		 * Returns the SQL expression that calculates the key of the period that contains the epoch day in the given column
+		 */
+		String getKey(String epochDayColumn)
+		{
+			return String.format(key, epochDayColumn);
+		}
+
+		/**
+		 * Returns the first day of the period that contains the given day
+		 */
+		abstract LocalDate getStart(LocalDate day);
+
+		/**
+		 * Returns the first day of the following period
+		 */
+		abstract LocalDate getNext(LocalDate start);
+
+		/**
+		 * Returns the key of the period that starts on the given day
+		 */
+		abstract long getKey(LocalDate start);
+	}
+
+	/**
+	 * A range of keys of one of the tables
+	 */
+	private static class Range
+	{
+		private final String table;
+		private final String column;
+		private final String value;
+		private final long   from;
+		private final long   to;
+
+		private Range(String table, String column, String value, long from, long to)
+		{
+			this.table = table;
+			this.column = column;
+			this.value = value;
+			this.from = from;
+			this.to = to;
+		}
+	}
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.database;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.util.*;
+
+import baz.timekeeper.core.*;
+
+/**
+ * {@link TimerJournal} is a small, memory-mapped, append-only journal of timer events. It lives next to the database and records the time of
+ * each running timer every second, which is a lot cheaper than writing to the database.
+ * <p>
+ * Every record has a sequence number. Once a database flush has been committed, all records up to the sequence number that was current when
+ * the flush was started are removed via {@link #compact(long)}. Whatever is left in the journal on startup is therefore newer than the database
+ * and is written back via {@link #replay()}.
+ *
+ * @author Sebastian Raubach
+ */
+public class TimerJournal
+{
+	private static final int MAGIC          = 0x544B4A31;
+	private static final int CAPACITY       = 4096;
+	/** magic (int), count (int), base sequence (long) */
+	private static final int HEADER_SIZE    = 16;
+	/** type (int), project id (int), epoch day (int), seconds (int), timestamp (long) */
+	private static final int RECORD_SIZE    = 24;
+	/** The number of tick records after which the journal is forced to disk */
+	private static final int FORCE_INTERVAL = 10;
+
+	private static final int OFFSET_COUNT = 4;
+	private static final int OFFSET_BASE  = 8;
+
+	private static TimerJournal INSTANCE;
+
+	private final FileChannel      channel;
+	private final MappedByteBuffer buffer;
+	private       int              count;
+	private       long             base;
+	private       int              unforced;
+
+	private TimerJournal(File file) throws IOException
+	{
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) CAPACITY * RECORD_SIZE);
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+		if (buffer.getInt(0) == MAGIC)
+		{
+			count = Math.min(Math.max(buffer.getInt(OFFSET_COUNT), 0), CAPACITY);
+			base = buffer.getLong(OFFSET_BASE);
+		}
+		else
+		{
+			/* New or unreadable journal, start from scratch */
+			count = 0;
+			base = 0;
+			buffer.putInt(0, MAGIC);
+			writeHeader();
+		}
+	}
+
+	/**
+	 * Returns the {@link TimerJournal}, opening it if necessary
+	 *
+	 * @return The {@link TimerJournal}
+	 * @throws IOException Thrown if the journal file can't be opened
+	 */
+	public static synchronized TimerJournal getInstance() throws IOException
+	{
+		if (INSTANCE == null)
+			INSTANCE = new TimerJournal(new File(Database.getDatabaseFile().getParentFile(), "timekeeper.journal"));
+
+		return INSTANCE;
+	}
+
+	/**
+	 * Appends an event to the journal
+	 *
+	 * @param type    The {@link EventType}
+	 * @param data    The {@link HistoryData} of the timer
+	 * @param seconds The total number of seconds of the timer at the time of the event
+	 */
+	public synchronized void record(EventType type, HistoryData data, int seconds)
+	{
+		if (Environment.isReadOnly() || data.getProject() == null || data.getProject().getId() == null)
+			return;
+
+		if (count == CAPACITY)
+			squash();
+
+		int offset = HEADER_SIZE + count * RECORD_SIZE;
+		buffer.putInt(offset, type.ordinal());
+		buffer.putInt(offset + 4, data.getProject().getId());
+		buffer.putInt(offset + 8, data.getEpochDay());
+		buffer.putInt(offset + 12, seconds);
+		buffer.putLong(offset + 16, System.currentTimeMillis());
+
+		/* Only count the record once it has been written completely */
+		count++;
+		writeHeader();
+
+		/* Start and stop events are rare, make sure they are on disk. Ticks are forced every now and then. */
+		if (type != EventType.TICK || ++unforced >= FORCE_INTERVAL)
+		{
+			buffer.force();
+			unforced = 0;
+		}
+	}
+
+	/**
+	 * Returns the sequence number of the next record. Pass this to {@link #compact(long)} once a database flush that was started now has been
+	 * committed.
+	 *
+	 * @return The sequence number of the next record
+	 */
+	public synchronized long mark()
+	{
+		return base + count;
+	}
+
+	/**
+	 * Removes all records with a sequence number lower than the given mark
+	 *
+	 * @param mark The mark obtained from {@link #mark()}
+	 */
+	public synchronized void compact(long mark)
+	{
+		int remove = (int) Math.min(count, Math.max(0, mark - base));
+
+		if (remove == 0)
+			return;
+
+		int remaining = count - remove;
+		for (int i = 0; i < remaining * RECORD_SIZE; i++)
+			buffer.put(HEADER_SIZE + i, buffer.get(HEADER_SIZE + remove * RECORD_SIZE + i));
+
+		count = remaining;
+		base += remove;
+		writeHeader();
+		buffer.force();
+	}
+
+	/**
+	 * Writes the most recent value of each project and day in the journal to the database, then clears the journal. Call this on startup before
+	 * loading today's data.
+	 *
+	 * @throws SQLException Thrown if the values can't be written. The journal isn't cleared in this case.
+	 */
+	public synchronized void replay() throws SQLException
+	{
+		if (count == 0)
+			return;
+
+		/* Only the most recent value per project and day matters */
+		Map<Long, HistoryData> latest = new LinkedHashMap<>();
+
+		for (int i = 0; i < count; i++)
+		{
+			int offset = HEADER_SIZE + i * RECORD_SIZE;
+			int projectId = buffer.getInt(offset + 4);
+			int epochDay = buffer.getInt(offset + 8);
+			int seconds = buffer.getInt(offset + 12);
+
+			Project project = ProjectRegistry.get(projectId);
+
+			if (project != null)
+				latest.put(((long) projectId << 32) | (epochDay & 0xFFFFFFFFL), new HistoryData(null, project, epochDay, seconds));
+		}
+
+		HistoryData.writeAll(latest.values());
+
+		compact(mark());
+	}
+
+	/**
+	 * Closes the journal file
+	 */
+	public static synchronized void close()
+	{
+		if (INSTANCE != null)
+		{
+			try
+			{
+				INSTANCE.buffer.force();
+				INSTANCE.channel.close();
+			}
+			catch (IOException e)
+			{
+				e.printStackTrace();
+			}
+
+			INSTANCE = null;
+		}
+	}
+
+	/**
+	 * Called when the journal is full. Reduces the records to the most recent one per project and day.
+	 */
+	private void squash()
+	{
+		Map<Long, byte[]> latest = new LinkedHashMap<>();
+
+		for (int i = 0; i < count; i++)
+		{
+			int offset = HEADER_SIZE + i * RECORD_SIZE;
+			long key = ((long) buffer.getInt(offset + 4) << 32) | (buffer.getInt(offset + 8) & 0xFFFFFFFFL);
+
+			byte[] record = new byte[RECORD_SIZE];
+			for (int j = 0; j < RECORD_SIZE; j++)
+				record[j] = buffer.get(offset + j);
+
+			latest.remove(key);
+			latest.put(key, record);
+		}
+
+		int i = 0;
+		for (byte[] record : latest.values())
+		{
+			for (int j = 0; j < RECORD_SIZE; j++)
+				buffer.put(HEADER_SIZE + i * RECORD_SIZE + j, record[j]);
+			i++;
+		}
+
+		/* Keep the sequence numbers of the remaining records monotonic */
+		base += count - latest.size();
+		count = latest.size();
+		writeHeader();
+		buffer.force();
+	}
+
+	private void writeHeader()
+	{
+		buffer.putLong(OFFSET_BASE, base);
+		buffer.putInt(OFFSET_COUNT, count);
+	}
+
+	/**
+	 * The type of a journal record
+	 */
+	public enum EventType
+	{
+		START,
+		STOP,
+		TICK,
+		/** The time of a timer has been corrected manually */
+		SET
+	}
+}
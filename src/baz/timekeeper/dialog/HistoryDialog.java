@@ -20,84 +20,75 @@ import org.eclipse.jface.dialogs.Dialog;
 import org.eclipse.jface.dialogs.*;
 import org.eclipse.jface.viewers.*;
 import org.eclipse.swt.*;
+import org.eclipse.swt.custom.*;
 import org.eclipse.swt.graphics.*;
 import org.eclipse.swt.layout.*;
 import org.eclipse.swt.widgets.*;
 
 import java.sql.*;
-import java.text.*;
+import java.time.*;
 import java.util.*;
-import java.util.Date;
 import java.util.List;
 import java.util.concurrent.*;
-import java.util.stream.*;
 
 import baz.timekeeper.*;
+import baz.timekeeper.core.*;
 import baz.timekeeper.database.*;
 import baz.timekeeper.i18n.*;
 import baz.timekeeper.util.*;
 import jhi.swtcommons.util.*;
 
-import static baz.timekeeper.database.HistoryData.*;
-
 /**
  * @author Sebastian Raubach
  */
 public class HistoryDialog extends Dialog
 {
-	private static final SimpleDateFormat SDF = new SimpleDateFormat("HH:mm:ss");
-
-	private List<Project> projects;
+	/** The labels of the date column, shared by all history dialogs */
+	private static final DayLabels DAY_LABELS = new DayLabels(Timekeeper.Timer.DAY_WEEK);
 
-	private List<HistoryDay> data = new ArrayList<>();
-
-	private Color[] colors = Gradient.createMultiGradient(new Color[]{Display.getDefault().getSystemColor(SWT.COLOR_WHITE), Display.getDefault().getSystemColor(SWT.COLOR_BLACK)}, 10);
-	private Gradient gradient;
+	/** The number of days (including today) of the recent totals shown as column tooltips */
+	private static final int[] RECENT_DAYS = {7, 30, 90};
 
-	private ProjectCellEditingSupport.GradientChangeListener listener = () -> data.stream()
-																				  .map(HistoryDay::getTotal)
-																				  .mapToInt(l -> l).max()
-																				  .ifPresent(value -> gradient.setMax(value));
-
-	public HistoryDialog(Shell parentShell) throws SQLException
+	/** The label provider of the columns that are drawn by the {@link HistoryCellRenderer} */
+	private static final CellLabelProvider OWNER_DRAWN = new CellLabelProvider()
 	{
-		super(parentShell);
+		@Override
+		public void update(ViewerCell cell)
+		{
+		}
+	};
 
-		this.projects = Project.getAll();
+	private List<Project> projects;
 
-		Project.sortByPosition(projects);
+	private HistoryStore  store;
+	private HistoryLoader loader;
 
-		List<HistoryData> d = HistoryData.getAll();
+	private Gradient gradient;
 
-		Map<Date, Map<Project, HistoryData>> temp = new HashMap<>();
+	private StackLayout         stack;
+	private TableViewer         viewer;
+	private HistoryCellRenderer renderer;
 
-		for (HistoryData i : d)
+	private ProjectCellEditingSupport.CellChangeListener listener = (day, maxChanged) ->
+	{
+		if (maxChanged)
 		{
-			if (SDF_DATE.format(i.getDate()).equals(SDF_DATE.format(new Date())))
-				continue;
-
-			Map<Project, HistoryData> m = temp.get(i.getDate());
-
-			if (m == null)
-				m = new HashMap<>();
-
-			m.put(i.getProject(), i);
-
-			temp.put(i.getDate(), m);
+			/* The colours of all days depend on the maximum, they're determined while painting */
+			gradient.setMax(store.getMaxTotal());
+			viewer.getTable().redraw();
 		}
+		else
+		{
+			/* Only the edited day has changed. Its cells are owner drawn, so there's no text that would cause a repaint. */
+			Table table = viewer.getTable();
+			Rectangle bounds = table.getItem(day.getRow()).getBounds();
+			table.redraw(0, bounds.y, table.getClientArea().width, bounds.height, false);
+		}
+	};
 
-		data.addAll(temp.keySet()
-						.stream()
-						.map(date -> new HistoryDay(date, temp.get(date)))
-						.collect(Collectors.toList()));
-
-		data.stream()
-			.map(HistoryDay::getTotal)
-			.mapToInt(l -> l)
-			.max()
-			.ifPresent(value -> gradient = new Gradient(colors, 0, value));
-
-		data.sort(Comparator.comparing(HistoryDay::getDay).reversed());
+	public HistoryDialog(Shell parentShell)
+	{
+		super(parentShell);
 	}
 
 	@Override
@@ -125,13 +116,35 @@ public class HistoryDialog extends Dialog
 	protected Control createDialogArea(Composite parent)
 	{
 		Composite container = (Composite) super.createDialogArea(parent);
-		container.setLayout(new FillLayout());
+		stack = new StackLayout();
+		container.setLayout(stack);
 
-		TableViewer viewer = new TableViewer(container, SWT.FULL_SELECTION | SWT.H_SCROLL | SWT.V_SCROLL | SWT.BORDER | SWT.VIRTUAL);
-//		viewer.setContentProvider(new ArrayContentProvider());
+		/* Shown until the index of all days has been loaded */
+		Label placeholder = new Label(container, SWT.CENTER);
+		placeholder.setText(RB.getString(RB.DIALOG_HISTORY_LOADING));
+		stack.topControl = placeholder;
+
+		viewer = new TableViewer(container, SWT.FULL_SELECTION | SWT.H_SCROLL | SWT.V_SCROLL | SWT.BORDER | SWT.VIRTUAL);
 		viewer.setContentProvider(new LazyContentProvider(viewer));
 		viewer.setUseHashlookup(true);
+		viewer.getTable().setHeaderVisible(true);
+		viewer.getTable().setLinesVisible(true);
+
+		/* Loads the index of all days except today, most recent first, followed by the cells of the most recent weeks */
+		loader = new HistoryLoader(parent.getDisplay()::asyncExec, new LoadListener());
+		loader.start();
+
+		/* The recent totals are only shown as tooltips, so they aren't loaded before the pointer is over the table */
+		viewer.getTable().addListener(SWT.MouseEnter, e -> loader.requestRangeTotals());
+
+		return container;
+	}
 
+	/**
+	 * Creates the columns once the {@link Project}s are known
+	 */
+	private void createColumns()
+	{
 		TableViewerColumn column = new TableViewerColumn(viewer, SWT.NONE);
 		TableColumn c = column.getColumn();
 		c.setText(RB.getString(RB.COLUMN_DATE));
@@ -141,81 +154,20 @@ public class HistoryDialog extends Dialog
 			@Override
 			public void update(ViewerCell viewerCell)
 			{
-				viewerCell.setText(Timekeeper.Timer.DAY_WEEK.format(((HistoryDay) viewerCell.getElement()).getDay()));
+				viewerCell.setText(DAY_LABELS.get(((HistoryDay) viewerCell.getElement()).getEpochDay()));
 			}
 		});
 
 		for (Project project : projects)
 		{
+			int index = store.getColumn(project);
+
 			column = new TableViewerColumn(viewer, SWT.NONE);
 			c = column.getColumn();
 			c.setText(project.getName());
 
-			column.setLabelProvider(new StyledCellLabelProvider()
-			{
-				@Override
-				public void update(ViewerCell viewerCell)
-				{
-					HistoryDay day = (HistoryDay) viewerCell.getElement();
-					long time = day.getTime(project);
-
-					long second = TimeUnit.SECONDS.toSeconds(time) % 60;
-					long minute = TimeUnit.SECONDS.toMinutes(time) % 60;
-					long hour = TimeUnit.SECONDS.toHours(time) % 24;
-					String formatted = String.format("%02d:%02d:%02d", hour, minute, second);
-
-					viewerCell.setBackground(getBackgroundColor(day));
-					viewerCell.setForeground(getTextColor(day));
-					viewerCell.setText(formatted);
-				}
-
-				private Color getTextColor(HistoryDay day)
-				{
-					long time = day.getTime(project);
-
-					long second = TimeUnit.SECONDS.toSeconds(time) % 60;
-					long minute = TimeUnit.SECONDS.toMinutes(time) % 60;
-					long hour = TimeUnit.SECONDS.toHours(time) % 24;
-
-					long value = hour * 3600 + minute * 60 + second;
-
-					return gradient.getTextColor(value);
-				}
-
-				private Color getBackgroundColor(HistoryDay day)
-				{
-					long time = day.getTime(project);
-
-					long second = TimeUnit.SECONDS.toSeconds(time) % 60;
-					long minute = TimeUnit.SECONDS.toMinutes(time) % 60;
-					long hour = TimeUnit.SECONDS.toHours(time) % 24;
-
-					long value = hour * 3600 + minute * 60 + second;
-
-					return gradient.getColor(value);
-				}
-
-				@Override
-				protected void paint(Event event, Object element)
-				{
-					HistoryDay day = (HistoryDay) element;
-
-					int x = event.x;
-					int y = event.y;
-
-					int width = 1000;
-					int height = event.height;
-
-					GC gc = event.gc;
-					Color oldBackground = gc.getBackground();
-
-					gc.setBackground(getBackgroundColor(day));
-					gc.fillRectangle(x, y, width, height);
-					gc.setBackground(oldBackground);
-
-					super.paint(event, element);
-				}
-			});
+			column.setLabelProvider(OWNER_DRAWN);
+			renderer.setColumn(viewer.getTable().getColumnCount() - 1, day -> day.getTime(index));
 
 			column.setEditingSupport(new ProjectCellEditingSupport(viewer, project, listener));
 		}
@@ -231,8 +183,8 @@ public class HistoryDialog extends Dialog
 			{
 				HistoryDay day = (HistoryDay) viewerCell.getElement();
 
-				if (day != null && day.getDailyLog() != null && day.getDailyLog().getStart() != null)
-					viewerCell.setText(SDF.format(day.getDailyLog().getStart()));
+				if (day != null && day.getDailyLog() != null)
+					viewerCell.setText(Timekeeper.Timer.TIME.format(Instant.ofEpochSecond(day.getDailyLog().getStart()).atZone(ZoneId.systemDefault())));
 			}
 		});
 
@@ -247,8 +199,8 @@ public class HistoryDialog extends Dialog
 			{
 				HistoryDay day = (HistoryDay) viewerCell.getElement();
 
-				if (day != null && day.getDailyLog() != null && day.getDailyLog().getEnd() != null)
-					viewerCell.setText(SDF.format(day.getDailyLog().getEnd()));
+				if (day != null && day.getDailyLog() != null)
+					viewerCell.setText(Timekeeper.Timer.TIME.format(Instant.ofEpochSecond(day.getDailyLog().getEnd()).atZone(ZoneId.systemDefault())));
 			}
 		});
 
@@ -256,60 +208,75 @@ public class HistoryDialog extends Dialog
 		c = column.getColumn();
 		c.setText(RB.getString(RB.COLUMN_SUM));
 
-		column.setLabelProvider(new StyledCellLabelProvider()
-		{
-			@Override
-			public void update(ViewerCell viewerCell)
-			{
-				long time = ((HistoryDay) viewerCell.getElement()).getTotal();
-
-				long second = TimeUnit.SECONDS.toSeconds(time) % 60;
-				long minute = TimeUnit.SECONDS.toMinutes(time) % 60;
-				long hour = TimeUnit.SECONDS.toHours(time) % 24;
-				String formatted = String.format("%02d:%02d:%02d", hour, minute, second);
+		column.setLabelProvider(OWNER_DRAWN);
+		renderer.setColumn(viewer.getTable().getColumnCount() - 1, HistoryDay::getTotal);
 
-				long value = hour * 3600 + minute * 60 + second;
+		Table table = viewer.getTable();
+		int durationWidth = renderer.getPreferredWidth();
+		for (int i = 0; i < table.getColumnCount(); i++)
+		{
+			TableColumn col = table.getColumn(i);
+			col.pack();
 
-				viewerCell.setBackground(gradient.getColor(value));
-				viewerCell.setForeground(gradient.getTextColor(value));
-				viewerCell.setText(formatted);
-			}
+			/* Owner drawn cells don't have any text that could be measured */
+			if (renderer.isDrawn(i))
+				col.setWidth(Math.max(col.getWidth(), durationWidth));
+		}
+	}
 
-			@Override
-			protected void paint(Event event, Object element)
-			{
-				long time = ((HistoryDay) element).getTotal();
+	@Override
+	protected void createButtonsForButtonBar(Composite parent)
+	{
+	}
 
-				int x = event.x;
-				int y = event.y;
+	@Override
+	public boolean close()
+	{
+		/* Stop loading, nothing that is still being loaded will be delivered */
+		if (loader != null)
+			loader.cancel();
 
-				int width = 1000;
-				int height = event.height;
+		/* Write all edited cells in the background */
+		if (store != null && store.isDirty())
+		{
+			List<HistoryData> changes = store.takeChanges();
+			PersistenceExecutor.getInstance().submit(changes, () -> HistoryData.writeAll(changes), null);
+		}
 
-				GC gc = event.gc;
-				Color oldBackground = gc.getBackground();
+		return super.close();
+	}
 
-				gc.setBackground(gradient.getColor(time));
-				gc.fillRectangle(x, y, width, height);
-				gc.setBackground(oldBackground);
+	/**
+	 * Shows the history as it's loaded
+	 */
+	private class LoadListener implements HistoryLoader.Listener
+	{
+		private boolean pageFailureShown = false;
 
-				super.paint(event, element);
+		@Override
+		public void onOpened(HistoryStore result)
+		{
+			if (result.getRowCount() < 1)
+			{
+				MessageDialog.openError(getShell(), RB.getString(RB.DIALOG_HISTORY_ERROR_TITLE), RB.getString(RB.DIALOG_HISTORY_ERROR_MESSAGE));
+				close();
+				return;
 			}
-		});
 
-		viewer.setInput(data);
-		viewer.setItemCount(data.size());
+			store = result;
+			projects = store.getProjects();
+			/* The colours are shared with all other history dialogs, so they're neither created nor disposed here */
+			Display display = getShell().getDisplay();
+			gradient = new Gradient(Gradient.getLut(display, new Color[]{display.getSystemColor(SWT.COLOR_WHITE), display.getSystemColor(SWT.COLOR_BLACK)}, 10), 0, store.getMaxTotal());
+			/* Rows whose page has been evicted are loaded again in the background */
+			renderer = new HistoryCellRenderer(viewer.getTable(), gradient, loader::request);
 
-		viewer.getTable().setHeaderVisible(true);
-		viewer.getTable().setLinesVisible(true);
-		for (TableColumn col : viewer.getTable().getColumns())
-		{
-			col.pack();
-		}
+			createColumns();
+			viewer.setInput(store);
 
-		if (data.size() > 0)
-		{
-			viewer.reveal(data.get(data.size() - 1));
+			Composite container = viewer.getTable().getParent();
+			stack.topControl = viewer.getTable();
+			container.layout();
 
 			// Restrict the size of the dialog to 1/2 height and 1/2 width
 			Point preferedSize = container.getShell().computeSize(SWT.DEFAULT, SWT.DEFAULT);
@@ -321,59 +288,94 @@ public class HistoryDialog extends Dialog
 				preferedSize.y = monitor.getClientArea().height / 2;
 
 			container.getShell().setSize(preferedSize);
+			container.getShell().setLocation(getInitialLocation(preferedSize));
 		}
 
-		return container;
-	}
+		@Override
+		public void onPageLoaded(int firstRow, int rowCount)
+		{
+			Table table = viewer.getTable();
+			int end = firstRow + rowCount;
 
-	@Override
-	protected void createButtonsForButtonBar(Composite parent)
-	{
-	}
+			if (end > table.getItemCount())
+			{
+				/* The most recent weeks are added as they arrive */
+				viewer.setItemCount(end);
+			}
+			else
+			{
+				/* The rows have been shown before their page was loaded, let the table fetch them again */
+				table.clear(firstRow, end - 1);
+			}
+		}
 
-	@Override
-	public int open()
-	{
-		if (data.size() < 1)
+		@Override
+		public void onPrefetched(HistoryStore result)
 		{
-			MessageDialog.openError(getShell(), RB.getString(RB.DIALOG_HISTORY_ERROR_TITLE), RB.getString(RB.DIALOG_HISTORY_ERROR_MESSAGE));
-			this.close();
-			return SWT.CANCEL;
+			/* All other rows are loaded as they're shown */
+			viewer.setItemCount(result.getRowCount());
 		}
-		else
+
+		@Override
+		public void onRangeTotalsLoaded(RangeTotals totals)
 		{
-			return super.open();
+			/* The recent totals are shown as the tooltips of the project columns (the date column comes first) and the sum column */
+			Table table = viewer.getTable();
+			long today = LocalDate.now().toEpochDay();
+			long[] sum = new long[RECENT_DAYS.length];
+
+			for (int i = 0; i < projects.size(); i++)
+			{
+				long[] recent = new long[RECENT_DAYS.length];
+
+				for (int j = 0; j < RECENT_DAYS.length; j++)
+				{
+					recent[j] = totals.getTotal(projects.get(i), today - RECENT_DAYS[j] + 1, today);
+					sum[j] += recent[j];
+				}
+
+				table.getColumn(i + 1).setToolTipText(getRecentTotals(recent));
+			}
+
+			table.getColumn(table.getColumnCount() - 1).setToolTipText(getRecentTotals(sum));
 		}
-	}
 
-	@Override
-	public boolean close()
-	{
-		if (gradient != null)
-			gradient.dispose();
+		private String getRecentTotals(long[] recent)
+		{
+			return RB.getString(RB.DIALOG_HISTORY_RECENT_TOTALS, Durations.format(recent[0]), Durations.format(recent[1]), Durations.format(recent[2]));
+		}
 
-		for (HistoryDay day : data)
+		@Override
+		public void onPageFailed(int firstRow, SQLException e)
 		{
-			if (day.hasChanged())
+			e.printStackTrace();
+
+			/* The rows of the page stay empty, everything else can still be used. Only the first failure is shown, they tend to come in bursts. */
+			if (!pageFailureShown)
 			{
-				try
-				{
-					day.saveToDatabase();
-				}
-				catch (SQLException e)
-				{
-					e.printStackTrace();
-				}
+				pageFailureShown = true;
+				MessageDialog.openError(getShell(), RB.getString(RB.DIALOG_HISTORY_ERROR_TITLE), e.getLocalizedMessage());
 			}
 		}
 
-		return super.close();
+		@Override
+		public void onFailed(SQLException e)
+		{
+			e.printStackTrace();
+
+			MessageDialog.openError(getShell(), RB.getString(RB.DIALOG_HISTORY_ERROR_TITLE), e.getLocalizedMessage());
+			close();
+		}
 	}
 
+	/**
+	 * Creates the {@link HistoryDay}s on demand. Rows whose page hasn't been loaded yet stay empty until the {@link HistoryLoader} has loaded
+	 * it.
+	 */
 	private class LazyContentProvider implements ILazyContentProvider
 	{
-		private TableViewer      viewer;
-		private List<HistoryDay> elements;
+		private TableViewer  viewer;
+		private HistoryStore elements;
 
 		public LazyContentProvider(TableViewer viewer)
 		{
@@ -386,12 +388,15 @@ public class HistoryDialog extends Dialog
 
 		public void inputChanged(Viewer viewer, Object oldInput, Object newInput)
 		{
-			this.elements = (List<HistoryDay>) newInput;
+			this.elements = (HistoryStore) newInput;
 		}
 
 		public void updateElement(int index)
 		{
-			viewer.replace(elements.get(index), index);
+			if (elements.isLoaded(index))
+				viewer.replace(new HistoryDay(elements, index), index);
+			else
+				loader.request(index);
 		}
 	}
 }
@@ -29,6 +29,7 @@ import org.eclipse.swt.widgets.*;
 import java.sql.*;
 import java.util.*;
 import java.util.List;
+import java.util.stream.*;
 
 import baz.timekeeper.database.*;
 import baz.timekeeper.i18n.*;
@@ -156,7 +157,11 @@ public class SettingsDialog extends Dialog
 			}
 		};
 
-		activeProjects = Project.getAll();
+		/* Work on copies, so that cancelling the dialog doesn't affect the canonical projects */
+		activeProjects = Project.getAll()
+								.stream()
+								.map(Project::new)
+								.collect(Collectors.toList());
 
 		Project.sortByPosition(activeProjects);
 
@@ -353,30 +358,28 @@ public class SettingsDialog extends Dialog
 		TimesheetPropertyReader.opacity = scale.getSelection();
 		TimesheetPropertyReader.updateInterval = updateIntervalComboViewer.getSelectedItem();
 
-		try
+		for (Project p : activeProjects)
+			p.setPosition(activeProjects.indexOf(p));
+
+		/* Save the projects in the background */
+		List<Project> projects = new ArrayList<>(activeProjects);
+		PersistenceExecutor.getInstance().submit(this, () ->
 		{
 			List<Project> databaseProjects = Project.getAll();
 
-			for (Project p : activeProjects)
-			{
-				p.setPosition(activeProjects.indexOf(p));
-				p.write();
-			}
+			/* Only new and changed projects are written */
+			FlushCoordinator.flush(projects);
 
 			for (Project p : databaseProjects)
 			{
-				if (!activeProjects.contains(p))
+				if (!projects.contains(p))
 				{
 					HistoryData.removeForProject(p);
 
 					p.remove();
 				}
 			}
-		}
-		catch (SQLException e)
-		{
-			e.printStackTrace();
-		}
+		}, null);
 
 		super.okPressed();
 	}
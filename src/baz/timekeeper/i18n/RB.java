@@ -49,6 +49,8 @@ public class RB extends jhi.swtcommons.gui.i18n.RB
 	public static final String DIALOG_HISTORY_TITLE                   = "dialog.history.title";
 	public static final String DIALOG_HISTORY_ERROR_TITLE             = "dialog.history.error.title";
 	public static final String DIALOG_HISTORY_ERROR_MESSAGE           = "dialog.history.error.message";
+	public static final String DIALOG_HISTORY_LOADING                 = "dialog.history.loading";
+	public static final String DIALOG_HISTORY_RECENT_TOTALS           = "dialog.history.recent.totals";
 	public static final String DIALOG_SETTINGS_TITLE                  = "dialog.settings.title";
 	public static final String DIALOG_SETTINGS_OPACITY                = "dialog.settings.opacity";
 	public static final String DIALOG_SETTINGS_PROJECTS               = "dialog.settings.projects";
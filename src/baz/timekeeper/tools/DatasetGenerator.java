@@ -0,0 +1,295 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package baz.timekeeper.tools;
+
+import java.io.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+import baz.timekeeper.core.*;
+import baz.timekeeper.database.*;
+
+/**
+ * {@link DatasetGenerator} writes a synthetic Timekeeper database for load and scale testing. The output only depends on the parameters, the
+ * same seed always results in the same database. Run it via <code>ant generate</code> and point Timekeeper or the benchmarks at the output
+ * folder via the <code>timekeeper.data.dir</code> system property.
+ *
+ * @author Sebastian Raubach
+ */
+public class DatasetGenerator
+{
+	/** The default end of the generated history, fixed so that the output doesn't change from one day to the next */
+	public static final LocalDate DEFAULT_LAST_DAY = LocalDate.of(2020, 12, 31);
+
+	/** The maximum time per project and day */
+	private static final int    MAX_SECONDS  = 10 * 3600;
+	/** The mean time per project and day */
+	private static final int    MEAN_SECONDS = 2 * 3600;
+	/** The shape of the {@link Distribution#PARETO} project weights, resulting in roughly the 80/20 rule */
+	private static final double PARETO_ALPHA = 1.16;
+	/** The number of rows written per transaction */
+	private static final int    BATCH_SIZE   = 50000;
+
+	private long         seed         = 1;
+	private int          projects     = 10;
+	private int          years        = 1;
+	private double       sparsity     = 0.5;
+	private Distribution distribution = Distribution.UNIFORM;
+	private LocalDate    lastDay      = DEFAULT_LAST_DAY;
+
+	public static void main(String[] args)
+	{
+		DatasetGenerator generator = new DatasetGenerator();
+		File output = null;
+
+		try
+		{
+			for (String arg : args)
+			{
+				String[] parts = arg.split("=", 2);
+
+				if (parts.length != 2)
+					throw new IllegalArgumentException(arg);
+
+				switch (parts[0])
+				{
+					case "--output":
+						output = new File(parts[1]);
+						break;
+					case "--seed":
+						generator.setSeed(Long.parseLong(parts[1]));
+						break;
+					case "--projects":
+						generator.setProjects(Integer.parseInt(parts[1]));
+						break;
+					case "--years":
+						generator.setYears(Integer.parseInt(parts[1]));
+						break;
+					case "--sparsity":
+						generator.setSparsity(Double.parseDouble(parts[1]));
+						break;
+					case "--distribution":
+						generator.setDistribution(Distribution.valueOf(parts[1].toUpperCase()));
+						break;
+					case "--last-day":
+						generator.setLastDay(LocalDate.parse(parts[1]));
+						break;
+					default:
+						throw new IllegalArgumentException(arg);
+				}
+			}
+
+			if (output == null)
+				throw new IllegalArgumentException("--output is required");
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println("Invalid argument: " + e.getMessage());
+			System.err.println("Usage: DatasetGenerator --output=<folder> [--seed=1] [--projects=10] [--years=1] [--sparsity=0.5] [--distribution=uniform|normal|pareto] [--last-day=2020-12-31]");
+			System.exit(1);
+			return;
+		}
+
+		try
+		{
+			long start = System.currentTimeMillis();
+			int rows = generator.generate(output);
+			System.out.println("Wrote " + rows + " rows to " + Database.getDatabaseFile() + " in " + (System.currentTimeMillis() - start) + "ms");
+		}
+		catch (IOException | SQLException e)
+		{
+			e.printStackTrace();
+			System.exit(1);
+		}
+		finally
+		{
+			Database.shutdown();
+		}
+	}
+
+	/**
+	 * Writes the database into the given folder. The folder must not contain a database yet.
+	 *
+	 * @param folder The output folder
+	 * @return The number of {@link HistoryData} rows that have been written
+	 * @throws IOException  Thrown if the folder already contains a database
+	 * @throws SQLException Thrown if writing to the database fails
+	 */
+	public int generate(File folder) throws IOException, SQLException
+	{
+		if (new File(folder, "timekeeper.db").exists())
+			throw new IOException("There already is a database in " + folder);
+
+		Database.shutdown();
+		ProjectRegistry.invalidate();
+		Environment.setReadOnly(false);
+		Environment.setDataFolder(folder);
+
+		Random random = new Random(seed);
+		ZoneId zone = ZoneId.systemDefault();
+
+		List<Project> all = new ArrayList<>();
+		for (int i = 0; i < projects; i++)
+		{
+			all.add(new Project((Integer) null).setName(String.format("Project %0" + String.valueOf(projects).length() + "d", i + 1))
+											   .setVisibility(true)
+											   .setPosition(i));
+		}
+		FlushCoordinator.flush(all);
+
+		/* Some projects are busier than others, the weights are part of the seeded sequence */
+		double[] weights = new double[projects];
+		for (int i = 0; i < projects; i++)
+			weights[i] = distribution == Distribution.PARETO ? Math.pow(1 - random.nextDouble(), -1 / PARETO_ALPHA) : 1;
+
+		List<HistoryData> data = new ArrayList<>();
+		List<DailyLog> logs = new ArrayList<>();
+		int rows = 0;
+
+		/* The totals are rebuilt once at the end instead of being updated for every row */
+		try (HistoryData.Import bulk = HistoryData.startImport())
+		{
+			for (LocalDate day = lastDay.minusYears(years).plusDays(1); !day.isAfter(lastDay); day = day.plusDays(1))
+			{
+				int epochDay = (int) day.toEpochDay();
+				int total = 0;
+
+				for (int i = 0; i < projects; i++)
+				{
+					/* Always draw the same number of values, so that a different sparsity doesn't change the other values */
+					boolean skip = random.nextDouble() < sparsity;
+					int seconds = nextSeconds(random, weights[i]);
+
+					if (skip || seconds == 0)
+						continue;
+
+					data.add(new HistoryData(null, all.get(i), epochDay, seconds));
+					total += seconds;
+				}
+
+				if (total > 0)
+				{
+					LocalDateTime start = day.atTime(8, 0).plusMinutes(random.nextInt(120));
+					logs.add(new DailyLog(null, epochDay, start.atZone(zone).toEpochSecond(), start.plusSeconds(total).atZone(zone).toEpochSecond()));
+				}
+
+				if (data.size() >= BATCH_SIZE)
+				{
+					rows += write(bulk, data, logs);
+				}
+			}
+
+			rows += write(bulk, data, logs);
+
+			bulk.finish();
+		}
+
+		return rows;
+	}
+
+	/**
+	 * Writes and clears the given batch
+	 */
+	private static int write(HistoryData.Import bulk, List<HistoryData> data, List<DailyLog> logs) throws SQLException
+	{
+		int rows = data.size();
+
+		bulk.add(data);
+		FlushCoordinator.flush(logs);
+
+		data.clear();
+		logs.clear();
+
+		return rows;
+	}
+
+	private int nextSeconds(Random random, double weight)
+	{
+		double value;
+
+		switch (distribution)
+		{
+			case NORMAL:
+				value = MEAN_SECONDS + random.nextGaussian() * MEAN_SECONDS / 2;
+				break;
+			case PARETO:
+				value = MEAN_SECONDS * weight * random.nextDouble();
+				break;
+			case UNIFORM:
+			default:
+				value = random.nextDouble() * MAX_SECONDS;
+				break;
+		}
+
+		return (int) Math.max(0, Math.min(MAX_SECONDS, value));
+	}
+
+	public DatasetGenerator setSeed(long seed)
+	{
+		this.seed = seed;
+		return this;
+	}
+
+	public DatasetGenerator setProjects(int projects)
+	{
+		this.projects = projects;
+		return this;
+	}
+
+	public DatasetGenerator setYears(int years)
+	{
+		this.years = years;
+		return this;
+	}
+
+	/**
+	 * Sets the probability that a project has no time on a given day
+	 *
+	 * @param sparsity The probability in the range [0, 1]
+	 * @return This {@link DatasetGenerator}
+	 */
+	public DatasetGenerator setSparsity(double sparsity)
+	{
+		this.sparsity = sparsity;
+		return this;
+	}
+
+	public DatasetGenerator setDistribution(Distribution distribution)
+	{
+		this.distribution = distribution;
+		return this;
+	}
+
+	public DatasetGenerator setLastDay(LocalDate lastDay)
+	{
+		this.lastDay = lastDay;
+		return this;
+	}
+
+	/**
+	 * The distribution of the time per project and day
+	 */
+	public enum Distribution
+	{
+		/** Every value between zero and ten hours is equally likely */
+		UNIFORM,
+		/** Values are centred around two hours */
+		NORMAL,
+		/** A few projects get most of the time */
+		PARETO
+	}
+}
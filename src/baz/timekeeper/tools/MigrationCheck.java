@@ -0,0 +1,283 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.tools;
+
+import java.io.*;
+import java.nio.file.*;
+import java.sql.*;
+import java.time.*;
+import java.util.*;
+
+import baz.timekeeper.core.*;
+import baz.timekeeper.database.*;
+
+/**
+ * {@link MigrationCheck} migrates copies of old databases to the latest schema version and verifies the result. Every fixture
+ * <code>&lt;name&gt;.db</code> comes with a <code>&lt;name&gt;.properties</code> file holding the expected row counts and totals after the
+ * migration. In addition, the history has to be the sum of the intervals, and the per-day totals and the rollups have to agree with the
+ * history itself. Run it via <code>ant
+ * check-migrations</code>.
+ *
+ * @author Sebastian Raubach
+ */
+public class MigrationCheck
+{
+	public static final String DEFAULT_FIXTURES = "fixtures/migrations";
+
+	private final List<String> failures = new ArrayList<>();
+
+	public static void main(String[] args)
+	{
+		File folder = new File(args.length > 0 ? args[0] : DEFAULT_FIXTURES);
+		File[] fixtures = folder.listFiles((dir, name) -> name.endsWith(".db"));
+
+		if (fixtures == null || fixtures.length == 0)
+		{
+			System.err.println("No fixtures in " + folder);
+			System.exit(1);
+			return;
+		}
+
+		Arrays.sort(fixtures);
+
+		boolean failed = false;
+
+		for (File fixture : fixtures)
+		{
+			try
+			{
+				List<String> failures = new MigrationCheck().check(fixture);
+
+				if (failures.isEmpty())
+				{
+					System.out.println(fixture.getName() + ": OK");
+				}
+				else
+				{
+					failed = true;
+					System.out.println(fixture.getName() + ": FAILED");
+					failures.forEach(f -> System.out.println("    " + f));
+				}
+			}
+			catch (IOException | SQLException e)
+			{
+				failed = true;
+				System.out.println(fixture.getName() + ": FAILED");
+				e.printStackTrace();
+			}
+		}
+
+		System.exit(failed ? 1 : 0);
+	}
+
+	/**
+	 * Migrates a copy of the given fixture and verifies the result. The fixture itself isn't changed.
+	 *
+	 * @param fixture The fixture database
+	 * @return The differences to the expected state, empty if the migration succeeded
+	 * @throws IOException  Thrown if the fixture or its expectations can't be read
+	 * @throws SQLException Thrown if the migration fails
+	 */
+	public List<String> check(File fixture) throws IOException, SQLException
+	{
+		Properties expected = new Properties();
+
+		try (Reader reader = new FileReader(new File(fixture.getParentFile(), fixture.getName().replaceAll("\\.db$", ".properties"))))
+		{
+			expected.load(reader);
+		}
+
+		Path folder = Files.createTempDirectory("timekeeper-migration");
+		File database = folder.resolve("timekeeper.db").toFile();
+		Files.copy(fixture.toPath(), database.toPath());
+
+		try
+		{
+			Database.shutdown();
+			ProjectRegistry.invalidate();
+			Environment.setReadOnly(false);
+			Environment.setDataFolder(folder.toFile());
+
+			/* Opening the database runs the migrations */
+			Database.open();
+
+			try (Connection connection = DriverManager.getConnection("jdbc:sqlite:" + database.toURI()))
+			{
+				checkSchema(connection);
+				checkExpectations(connection, expected);
+				checkIntervals(connection);
+				checkDayTotals(connection);
+				checkRollups(connection);
+			}
+		}
+		finally
+		{
+			Database.shutdown();
+			ProjectRegistry.invalidate();
+
+			File[] files = folder.toFile().listFiles();
+			if (files != null)
+			{
+				for (File file : files)
+					file.delete();
+			}
+			Files.delete(folder);
+		}
+
+		return failures;
+	}
+
+	private void checkSchema(Connection connection) throws SQLException
+	{
+		assertEquals("user_version", Database.getSchemaVersion(), queryLong(connection, "PRAGMA user_version"));
+		assertEquals("foreign key violations", 0, count(connection, "PRAGMA foreign_key_check"));
+		assertEquals("integrity check", "ok", queryString(connection, "PRAGMA integrity_check"));
+
+		/* Text dates that haven't been converted would silently compare wrong */
+		assertEquals("historydata.date that aren't epoch days", 0, queryLong(connection, "SELECT COUNT(*) FROM `historydata` WHERE typeof(`date`) != 'integer'"));
+		assertEquals("dailylog values that aren't epoch values", 0, queryLong(connection, "SELECT COUNT(*) FROM `dailylog` WHERE typeof(`date`) != 'integer' OR typeof(`start`) != 'integer' OR typeof(`end`) != 'integer'"));
+	}
+
+	private void checkExpectations(Connection connection, Properties expected) throws SQLException
+	{
+		Map<String, String> queries = new LinkedHashMap<>();
+		queries.put("projects", "SELECT COUNT(*) FROM `projects`");
+		queries.put("historydata.rows", "SELECT COUNT(*) FROM `historydata`");
+		queries.put("historydata.total", "SELECT IFNULL(SUM(`time`), 0) FROM `historydata`");
+		queries.put("historydata.days", "SELECT COUNT(DISTINCT `date`) FROM `historydata`");
+		queries.put("dailylog.rows", "SELECT COUNT(*) FROM `dailylog`");
+		queries.put("dailylog.duration", "SELECT IFNULL(SUM(`end` - `start`), 0) FROM `dailylog`");
+		queries.put("intervals.rows", "SELECT COUNT(*) FROM `intervals`");
+
+		for (Map.Entry<String, String> query : queries.entrySet())
+		{
+			String value = expected.getProperty(query.getKey());
+
+			if (value != null)
+				assertEquals(query.getKey(), Long.parseLong(value), queryLong(connection, query.getValue()));
+		}
+
+		for (String key : expected.stringPropertyNames())
+		{
+			if (key.startsWith("historydata.total."))
+			{
+				String project = key.substring("historydata.total.".length());
+				assertEquals(key, Long.parseLong(expected.getProperty(key)), queryLong(connection, "SELECT IFNULL(SUM(`time`), 0) FROM `historydata` WHERE `project_id` = " + Integer.parseInt(project)));
+			}
+		}
+	}
+
+	private void checkIntervals(Connection connection) throws SQLException
+	{
+		String intervals = "SELECT `project_id`, `date`, SUM(`seconds`) AS `seconds` FROM `intervals` GROUP BY `project_id`, `date`";
+
+		assertEquals("historydata that isn't the sum of its intervals", 0, queryLong(connection, "SELECT COUNT(*) FROM `historydata` h LEFT JOIN (" + intervals + ") i ON i.`project_id` = h.`project_id` AND i.`date` = h.`date` WHERE h.`time` != IFNULL(i.`seconds`, 0)"));
+		assertEquals("intervals without historydata", 0, queryLong(connection, "SELECT COUNT(*) FROM (" + intervals + ") i LEFT JOIN `historydata` h ON h.`project_id` = i.`project_id` AND h.`date` = i.`date` WHERE h.`id` IS NULL"));
+		assertEquals("tracked intervals whose seconds aren't their duration", 0, queryLong(connection, "SELECT COUNT(*) FROM `intervals` WHERE `end` > `start` AND `seconds` != `end` - `start`"));
+	}
+
+	private void checkDayTotals(Connection connection) throws SQLException
+	{
+		String history = "SELECT `date`, SUM(`time`) AS `total`, COUNT(*) AS `entries` FROM `historydata` GROUP BY `date`";
+
+		assertEquals("days missing from daytotals", 0, queryLong(connection, "SELECT COUNT(*) FROM (" + history + ") h LEFT JOIN `daytotals` d ON d.`date` = h.`date` WHERE d.`date` IS NULL OR d.`total` != h.`total` OR d.`entries` != h.`entries`"));
+		assertEquals("days in daytotals without history", 0, queryLong(connection, "SELECT COUNT(*) FROM `daytotals` d LEFT JOIN (" + history + ") h ON h.`date` = d.`date` WHERE h.`date` IS NULL"));
+	}
+
+	private void checkRollups(Connection connection) throws SQLException
+	{
+		long first = queryLong(connection, "SELECT IFNULL(MIN(`date`), 0) FROM `historydata`");
+		long last = queryLong(connection, "SELECT IFNULL(MAX(`date`), 0) FROM `historydata`");
+
+		/* The whole history, whole years and months, and ranges that aren't aligned to any period */
+		List<long[]> ranges = new ArrayList<>();
+		ranges.add(new long[]{first, last});
+
+		for (LocalDate day = LocalDate.ofEpochDay(first).withDayOfMonth(1); day.toEpochDay() <= last; day = day.plusMonths(1))
+		{
+			ranges.add(new long[]{day.toEpochDay(), day.plusMonths(1).toEpochDay() - 1});
+
+			if (day.getMonthValue() == 1)
+				ranges.add(new long[]{day.toEpochDay(), day.plusYears(1).toEpochDay() - 1});
+		}
+
+		for (long from = first; from <= last; from += 37)
+			ranges.add(new long[]{from, from + 100});
+
+		for (long[] range : ranges)
+		{
+			Map<Integer, Long> actual = new HashMap<>();
+			Rollups.getTotals(range[0], range[1]).forEach((project, total) -> actual.put(project.getId(), total));
+
+			Map<Integer, Long> expected = new HashMap<>();
+			try (PreparedStatement stmt = connection.prepareStatement("SELECT `project_id`, SUM(`time`) FROM `historydata` WHERE `date` BETWEEN ? AND ? GROUP BY `project_id` HAVING SUM(`time`) != 0"))
+			{
+				stmt.setLong(1, range[0]);
+				stmt.setLong(2, range[1]);
+
+				try (ResultSet rs = stmt.executeQuery())
+				{
+					while (rs.next())
+						expected.put(rs.getInt(1), rs.getLong(2));
+				}
+			}
+
+			assertEquals("rollups from " + LocalDate.ofEpochDay(range[0]) + " to " + LocalDate.ofEpochDay(range[1]), expected, actual);
+		}
+	}
+
+	private void assertEquals(String what, long expected, long actual)
+	{
+		if (expected != actual)
+			failures.add(what + ": expected " + expected + ", but was " + actual);
+	}
+
+	private void assertEquals(String what, Object expected, Object actual)
+	{
+		if (!Objects.equals(expected, actual))
+			failures.add(what + ": expected " + expected + ", but was " + actual);
+	}
+
+	private static long count(Connection connection, String sql) throws SQLException
+	{
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql))
+		{
+			long count = 0;
+
+			while (rs.next())
+				count++;
+
+			return count;
+		}
+	}
+
+	private static long queryLong(Connection connection, String sql) throws SQLException
+	{
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql))
+		{
+			return rs.next() ? rs.getLong(1) : 0;
+		}
+	}
+
+	private static String queryString(Connection connection, String sql) throws SQLException
+	{
+		try (Statement stmt = connection.createStatement(); ResultSet rs = stmt.executeQuery(sql))
+		{
+			return rs.next() ? rs.getString(1) : null;
+		}
+	}
+}
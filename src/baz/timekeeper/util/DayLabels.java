@@ -0,0 +1,81 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.util;
+
+import java.time.*;
+import java.time.format.*;
+
+/**
+ * {@link DayLabels} formats days given as epoch days and remembers the most recent labels, so that repainting a column of dates (e.g. while
+ * scrolling through the history) doesn't format the same days again and again.
+ * <p>
+ * The cache is direct-mapped: every day has exactly one slot, and a day replaces whatever was in its slot before. Slots hold immutable entries,
+ * so {@link DayLabels} can be used from any thread without locking.
+ *
+ * @author Sebastian Raubach
+ */
+public class DayLabels
+{
+	/** The number of cached labels, a power of two */
+	private static final int CACHE_SIZE = 1024;
+
+	private final DateTimeFormatter formatter;
+	private final Entry[]           cache = new Entry[CACHE_SIZE];
+
+	/**
+	 * Creates {@link DayLabels} that format days with the given {@link DateTimeFormatter}
+	 *
+	 * @param formatter The {@link DateTimeFormatter}
+	 */
+	public DayLabels(DateTimeFormatter formatter)
+	{
+		this.formatter = formatter;
+	}
+
+	/**
+	 * Returns the label of the given day
+	 *
+	 * @param epochDay The number of days since 1970-01-01
+	 * @return The formatted day
+	 */
+	public String get(long epochDay)
+	{
+		/* Consecutive days go into consecutive slots */
+		int slot = (int) epochDay & (CACHE_SIZE - 1);
+		Entry entry = cache[slot];
+
+		if (entry == null || entry.epochDay != epochDay)
+		{
+			entry = new Entry(epochDay, formatter.format(LocalDate.ofEpochDay(epochDay)));
+			cache[slot] = entry;
+		}
+
+		return entry.label;
+	}
+
+	private static class Entry
+	{
+		private final long   epochDay;
+		private final String label;
+
+		private Entry(long epochDay, String label)
+		{
+			this.epochDay = epochDay;
+			this.label = label;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.util;
+
+/**
+ * {@link Durations} formats and parses durations as <code>H+:mm:ss</code>, i.e. at least two digits of hours followed by minutes and seconds.
+ * Unlike a time of day, a duration isn't limited to 24 hours, so <code>"26:03:00"</code> is 26 hours and 3 minutes.
+ * <p>
+ * The methods work on int seconds directly and don't create any {@link java.util.Calendar} or {@link java.util.Date} objects. {@link
+ * #format(long, char[], int)} doesn't allocate at all.
+ *
+ * @author Sebastian Raubach
+ */
+public class Durations
+{
+	/** The maximal number of characters of a formatted duration, i.e. the length of {@link Long#MAX_VALUE} seconds */
+	public static final int MAX_LENGTH = 22;
+
+	/**
+	 * Formats the given number of seconds as <code>H+:mm:ss</code>. Negative values are formatted as zero.
+	 *
+	 * @param seconds The number of seconds
+	 * @return The formatted duration
+	 */
+	public static String format(long seconds)
+	{
+		char[] buffer = new char[MAX_LENGTH];
+		return new String(buffer, 0, format(seconds, buffer, 0));
+	}
+
+	/**
+	 * Formats the given number of seconds as <code>H+:mm:ss</code> into the given buffer. Negative values are formatted as zero.
+	 *
+	 * @param seconds The number of seconds
+	 * @param buffer  The buffer, it needs {@link #MAX_LENGTH} characters starting at the offset
+	 * @param offset  The index of the first character in the buffer
+	 * @return The number of characters written
+	 */
+	public static int format(long seconds, char[] buffer, int offset)
+	{
+		long value = Math.max(0, seconds);
+		long hours = value / 3600;
+		int minutes = (int) (value / 60 % 60);
+		int secs = (int) (value % 60);
+
+		/* The hours have at least two digits */
+		int digits = 2;
+		for (long i = hours / 100; i > 0; i /= 10)
+			digits++;
+
+		int position = offset + digits;
+		for (int i = 0; i < digits; i++)
+		{
+			buffer[--position] = (char) ('0' + hours % 10);
+			hours /= 10;
+		}
+
+		position = offset + digits;
+		buffer[position++] = ':';
+		buffer[position++] = (char) ('0' + minutes / 10);
+		buffer[position++] = (char) ('0' + minutes % 10);
+		buffer[position++] = ':';
+		buffer[position++] = (char) ('0' + secs / 10);
+		buffer[position++] = (char) ('0' + secs % 10);
+
+		return position - offset;
+	}
+
+	/**
+	 * Parses a duration formatted as <code>H+:mm:ss</code>. Leading and trailing whitespace is ignored, minutes and seconds may also have a
+	 * single digit.
+	 *
+	 * @param text The formatted duration
+	 * @return The number of seconds
+	 * @throws IllegalArgumentException Thrown if the text isn't a valid duration or doesn't fit into an int
+	 */
+	public static int parse(CharSequence text) throws IllegalArgumentException
+	{
+		int start = 0;
+		int end = text.length();
+
+		while (start < end && Character.isWhitespace(text.charAt(start)))
+			start++;
+		while (end > start && Character.isWhitespace(text.charAt(end - 1)))
+			end--;
+
+		long result = 0;
+		int field = 0;
+		int digits = 0;
+		long value = 0;
+
+		for (int i = start; i <= end; i++)
+		{
+			char c = i < end ? text.charAt(i) : ':';
+
+			if (c >= '0' && c <= '9')
+			{
+				value = value * 10 + (c - '0');
+				digits++;
+
+				if (value > Integer.MAX_VALUE)
+					throw new IllegalArgumentException("Duration too long: " + text);
+			}
+			else if (c == ':' && digits > 0 && field < 3)
+			{
+				/* Minutes and seconds have one or two digits and are less than 60 */
+				if (field > 0 && (digits > 2 || value > 59))
+					throw new IllegalArgumentException("Invalid duration: " + text);
+
+				result = result * 60 + value;
+				field++;
+				digits = 0;
+				value = 0;
+			}
+			else
+			{
+				throw new IllegalArgumentException("Invalid duration: " + text);
+			}
+		}
+
+		if (field != 3 || result > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Invalid duration: " + text);
+
+		return (int) result;
+	}
+}
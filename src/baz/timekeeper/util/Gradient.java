@@ -21,9 +21,16 @@ import org.eclipse.swt.graphics.*;
 import org.eclipse.swt.widgets.*;
 
 import java.io.*;
+import java.util.*;
+
+import baz.timekeeper.*;
 
 /**
- * {@link Gradient} is a class representing a color gradient backed by an array of {@link Color}s.
+ * {@link Gradient} is a class representing a color gradient backed by a {@link Lut}, a lookup table of {@link Color}s and their text colors.
+ * <p>
+ * The {@link Color}s of a {@link Lut} are obtained from {@link Resources.Colors}, so they're shared and disposed with all other resources.
+ * {@link Lut}s created via {@link #getLut(Display, Color[], int)} are cached for the lifetime of the {@link Display}, creating the same
+ * gradient again doesn't allocate any native resources.
  *
  * @author Sebastian Raubach
  */
@@ -31,9 +38,11 @@ public class Gradient implements Serializable
 {
 	private static final long serialVersionUID = 1348208804095134273L;
 
-	private double  maxValue;
-	private double  minValue;
-	private Color[] gradient;
+	private static final Map<Display, Map<String, Lut>> LUTS = new HashMap<>();
+
+	private double maxValue;
+	private double minValue;
+	private Lut    lut;
 
 	public Gradient()
 	{
@@ -51,10 +60,7 @@ public class Gradient implements Serializable
 	 */
 	public Gradient(Color[] colors, int numSteps, double minValue, double maxValue)
 	{
-		this.minValue = minValue;
-		this.maxValue = maxValue;
-
-		this.gradient = createMultiGradient(colors, numSteps);
+		this(getLut(getDisplay(colors), colors, numSteps), minValue, maxValue);
 	}
 
 	/**
@@ -66,13 +72,74 @@ public class Gradient implements Serializable
 	 */
 	public Gradient(Color[] gradient, double minValue, double maxValue)
 	{
-		if (gradient == null || gradient.length < 2)
-			throw new IllegalArgumentException("Invalid number of colors");
+		this(new Lut(getDisplay(gradient), gradient), minValue, maxValue);
+	}
 
+	/**
+	 * Creates an Instance of Gradient using a {@link Lut}
+	 *
+	 * @param lut      The {@link Lut}, see {@link #getLut(Display, Color[], int)}
+	 * @param minValue the minimal of all representable values
+	 * @param maxValue the maximum of all representable values
+	 */
+	public Gradient(Lut lut, double minValue, double maxValue)
+	{
 		this.minValue = minValue;
 		this.maxValue = maxValue;
 
-		this.gradient = gradient;
+		this.lut = lut;
+	}
+
+	/**
+	 * Returns the {@link Lut} of the gradient between the given colors. The {@link Lut} is only created once per {@link Display}.
+	 *
+	 * @param display  The {@link Display}
+	 * @param colors   An array of Color objects used for the gradient. The Color at index 0 will be the lowest color.
+	 * @param numSteps The number of steps in the gradient
+	 * @return The {@link Lut}
+	 */
+	public static Lut getLut(Display display, Color[] colors, int numSteps)
+	{
+		if (colors == null || colors.length < 2)
+			throw new IllegalArgumentException("Invalid number of colors");
+
+		StringBuilder key = new StringBuilder().append(numSteps);
+		for (Color color : colors)
+			key.append(';').append(color.getRed()).append(',').append(color.getGreen()).append(',').append(color.getBlue());
+
+		synchronized (LUTS)
+		{
+			Map<String, Lut> luts = LUTS.get(display);
+
+			if (luts == null)
+			{
+				luts = new HashMap<>();
+				LUTS.put(display, luts);
+
+				display.disposeExec(() ->
+				{
+					synchronized (LUTS)
+					{
+						LUTS.remove(display);
+					}
+				});
+			}
+
+			return luts.computeIfAbsent(key.toString(), k -> new Lut(display, createMultiGradient(colors, numSteps)));
+		}
+	}
+
+	/**
+	 * Returns the {@link Display} the given colors belong to
+	 */
+	private static Display getDisplay(Color[] colors)
+	{
+		if (colors == null || colors.length < 2)
+			throw new IllegalArgumentException("Invalid number of colors");
+
+		Device device = colors[0].getDevice();
+
+		return device instanceof Display ? (Display) device : Display.getDefault();
 	}
 
 	public static Color[] createMultiGradient(Color[] colors, int numSteps)
@@ -121,7 +188,8 @@ public class Gradient implements Serializable
 	}
 
 	/**
-	 * Creates an array of Color objects for use as a gradient, using a linear interpolation between the two specified colors.
+	 * Creates an array of Color objects for use as a gradient, using a linear interpolation between the two specified colors. The colors are
+	 * obtained from {@link Resources.Colors}, so they must not be disposed.
 	 *
 	 * @param one      Color used for the bottom of the gradient
 	 * @param two      Color used for the top of the gradient
@@ -149,7 +217,7 @@ public class Gradient implements Serializable
 			newR = (int) (r1 + iNorm * (r2 - r1));
 			newG = (int) (g1 + iNorm * (g2 - g1));
 			newB = (int) (b1 + iNorm * (b2 - b1));
-			gradient[i] = new Color(Display.getDefault(), newR, newG, newB);
+			gradient[i] = Resources.Colors.loadColor(new RGB(newR, newG, newB));
 		}
 
 		return gradient;
@@ -157,7 +225,7 @@ public class Gradient implements Serializable
 
 	public Color[] getColors()
 	{
-		return gradient;
+		return lut.colors.clone();
 	}
 
 	/**
@@ -170,21 +238,20 @@ public class Gradient implements Serializable
 	public Color getTextColor(double value)
 	{
 		if (maxValue == minValue)
-			return Display.getDefault().getSystemColor(SWT.COLOR_BLACK);
-
-		double range = maxValue - minValue;
-		double norm = (value - minValue) / range; // 0 < norm < 1
-		int colorIndex = (int) Math.floor(norm * (gradient.length - 1));
-
-		colorIndex = Math.max(0, colorIndex);
-		colorIndex = Math.min(colorIndex, gradient.length - 1);
+			return lut.display.getSystemColor(SWT.COLOR_BLACK);
 
-		Color temp = gradient[colorIndex];
+		return lut.textColors[getIndex(value)];
+	}
 
-		if ((temp.getBlue() + temp.getRed() + temp.getGreen()) / 3 > 128)
-			return Display.getDefault().getSystemColor(SWT.COLOR_BLACK);
-		else
-			return Display.getDefault().getSystemColor(SWT.COLOR_WHITE);
+	/**
+	 * Returns the text color of the color at the given index, see {@link #getTextColor(double)}
+	 *
+	 * @param index The index as returned by {@link #getIndex(int)}
+	 * @return The text color
+	 */
+	public Color getTextColorAt(int index)
+	{
+		return lut.textColors[index];
 	}
 
 	/**
@@ -201,7 +268,7 @@ public class Gradient implements Serializable
 		}
 		catch (NumberFormatException e)
 		{
-			return Display.getDefault().getSystemColor(SWT.COLOR_WHITE);
+			return lut.display.getSystemColor(SWT.COLOR_WHITE);
 		}
 	}
 
@@ -214,16 +281,62 @@ public class Gradient implements Serializable
 	public Color getColor(double value)
 	{
 		if (maxValue == minValue)
-			return Display.getDefault().getSystemColor(SWT.COLOR_WHITE);
+			return lut.display.getSystemColor(SWT.COLOR_WHITE);
+
+		return lut.colors[getIndex(value)];
+	}
+
+	/**
+	 * Returns the color at the given index
+	 *
+	 * @param index The index as returned by {@link #getIndex(int)}
+	 * @return The color
+	 */
+	public Color getColorAt(int index)
+	{
+		return lut.colors[index];
+	}
+
+	/**
+	 * Determines the index of the color of the given value, so that both the color and the text color can be looked up without calculating it
+	 * again
+	 *
+	 * @param value The value
+	 * @return The index of the color of this value
+	 */
+	public int getIndex(double value)
+	{
+		if (maxValue == minValue)
+			return 0;
 
 		double range = maxValue - minValue;
 		double norm = (value - minValue) / range; // 0 < norm < 1
-		int colorIndex = (int) Math.floor(norm * (gradient.length - 1));
+		int colorIndex = (int) Math.floor(norm * (lut.colors.length - 1));
 
 		colorIndex = Math.max(0, colorIndex);
-		colorIndex = Math.min(colorIndex, gradient.length - 1);
+		colorIndex = Math.min(colorIndex, lut.colors.length - 1);
 
-		return gradient[colorIndex];
+		return colorIndex;
+	}
+
+	/**
+	 * Determines the index of the color of the given number of seconds using integer arithmetic only. The seconds are divided into as many
+	 * equally sized buckets as there are colors, the result is the same as for {@link #getIndex(double)}.
+	 *
+	 * @param seconds The number of seconds
+	 * @return The index of the color of this value
+	 */
+	public int getIndex(int seconds)
+	{
+		long min = (long) minValue;
+		long range = (long) maxValue - min;
+
+		if (range <= 0 || minValue != min || maxValue != (long) maxValue)
+			return getIndex((double) seconds);
+
+		long value = Math.max(0, Math.min(seconds - min, range));
+
+		return (int) (value * (lut.colors.length - 1) / range);
 	}
 
 	public double getMin()
@@ -246,9 +359,38 @@ public class Gradient implements Serializable
 		this.maxValue = maxValue;
 	}
 
-	public void dispose()
+	/**
+	 * {@link Lut} is a lookup table of the {@link Color}s of a gradient and the text {@link Color} that contrasts with each of them
+	 */
+	public static class Lut
 	{
-		for (Color color : gradient)
-			color.dispose();
+		private final Display display;
+		private final Color[] colors;
+		private final Color[] textColors;
+
+		private Lut(Display display, Color[] colors)
+		{
+			if (colors == null || colors.length < 2)
+				throw new IllegalArgumentException("Invalid number of colors");
+
+			this.display = display;
+			this.colors = colors.clone();
+			this.textColors = new Color[colors.length];
+
+			for (int i = 0; i < colors.length; i++)
+			{
+				Color temp = colors[i];
+
+				if ((temp.getBlue() + temp.getRed() + temp.getGreen()) / 3 > 128)
+					textColors[i] = display.getSystemColor(SWT.COLOR_BLACK);
+				else
+					textColors[i] = display.getSystemColor(SWT.COLOR_WHITE);
+			}
+		}
+
+		public int size()
+		{
+			return colors.length;
+		}
 	}
 }
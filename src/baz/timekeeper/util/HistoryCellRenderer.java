@@ -0,0 +1,259 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package baz.timekeeper.util;
+
+import org.eclipse.swt.*;
+import org.eclipse.swt.graphics.*;
+import org.eclipse.swt.widgets.*;
+
+import java.util.*;
+
+import baz.timekeeper.core.*;
+
+/**
+ * {@link HistoryCellRenderer} draws the duration cells of the history table itself (owner draw). The background is filled with the colour of
+ * the value in <code>SWT.EraseItem</code> and the text is drawn in <code>SWT.PaintItem</code>, so the label providers of these columns don't
+ * have to do anything. Rows whose page isn't loaded are left empty and reported to the {@link MissingRowListener}, which loads them.
+ * <p>
+ * The colour index is determined once per cell, and the text is formatted into a reused <code>char[]</code> and kept in a small cache, so
+ * that repainting the same values (e.g. while scrolling) reuses the same {@link String}s. Only a value that isn't cached allocates its
+ * {@link String}.
+ *
+ * @author Sebastian Raubach
+ */
+public class HistoryCellRenderer implements Listener
+{
+	/** The horizontal padding of the text */
+	private static final int MARGIN     = 3;
+	/** The number of formatted values that are cached, a power of two */
+	private static final int CACHE_SIZE = 1024;
+
+	private final Table              table;
+	private final Gradient           gradient;
+	private final MissingRowListener missingRowListener;
+
+	/** The value of each owner drawn column, indexed by the column index */
+	private CellValue[] columns = new CellValue[0];
+
+	private final char[]   buffer     = new char[Durations.MAX_LENGTH];
+	private final int[]    cachedKeys = new int[CACHE_SIZE];
+	private final String[] cachedText = new String[CACHE_SIZE];
+
+	/** The cell that has been erased last, its colour index is reused when it's painted */
+	private Widget lastItem;
+	private int    lastColumn = -1;
+	private int    lastIndex;
+	private int    lastValue;
+
+	private int fontHeight = -1;
+
+	/**
+	 * Creates a {@link HistoryCellRenderer} and registers it with the {@link Table}
+	 *
+	 * @param table              The {@link Table}
+	 * @param gradient           The {@link Gradient} that determines the colours
+	 * @param missingRowListener The {@link MissingRowListener} that is told about rows whose page isn't loaded
+	 */
+	public HistoryCellRenderer(Table table, Gradient gradient, MissingRowListener missingRowListener)
+	{
+		this.table = table;
+		this.gradient = gradient;
+		this.missingRowListener = missingRowListener;
+
+		table.addListener(SWT.EraseItem, this);
+		table.addListener(SWT.PaintItem, this);
+	}
+
+	/**
+	 * Draws the given column. Its label provider shouldn't set any text or colours.
+	 *
+	 * @param column The index of the column
+	 * @param value  The {@link CellValue} that returns the time of a cell in seconds
+	 */
+	public void setColumn(int column, CellValue value)
+	{
+		if (column >= columns.length)
+			columns = Arrays.copyOf(columns, column + 1);
+
+		columns[column] = value;
+	}
+
+	/**
+	 * Returns <code>true</code> if the given column is drawn by this {@link HistoryCellRenderer}
+	 *
+	 * @param column The index of the column
+	 * @return <code>true</code> if the given column is drawn by this {@link HistoryCellRenderer}
+	 */
+	public boolean isDrawn(int column)
+	{
+		return column < columns.length && columns[column] != null;
+	}
+
+	/**
+	 * Returns the width a column needs to show a duration
+	 *
+	 * @return The width in pixels
+	 */
+	public int getPreferredWidth()
+	{
+		GC gc = new GC(table);
+
+		try
+		{
+			return gc.textExtent(format(0)).x + 2 * MARGIN;
+		}
+		finally
+		{
+			gc.dispose();
+		}
+	}
+
+	@Override
+	public void handleEvent(Event event)
+	{
+		CellValue column = event.index < columns.length ? columns[event.index] : null;
+
+		if (column == null || !(event.item.getData() instanceof HistoryDay))
+			return;
+
+		HistoryDay day = (HistoryDay) event.item.getData();
+
+		/* The page has been evicted, keep the cell empty until it's back */
+		if (!day.isLoaded())
+		{
+			if (event.type == SWT.EraseItem)
+				missingRowListener.onMissingRow(day.getRow());
+
+			event.detail &= ~SWT.FOREGROUND;
+			return;
+		}
+
+		switch (event.type)
+		{
+			case SWT.EraseItem:
+				erase(event, column);
+				break;
+			case SWT.PaintItem:
+				paint(event, column);
+				break;
+		}
+	}
+
+	private void erase(Event event, CellValue column)
+	{
+		lastItem = event.item;
+		lastColumn = event.index;
+		lastValue = column.get((HistoryDay) event.item.getData());
+		lastIndex = gradient.getIndex(lastValue);
+
+		/* Selected cells keep the native selection background */
+		if ((event.detail & SWT.SELECTED) == 0)
+		{
+			event.gc.setBackground(getColor(lastIndex));
+			event.gc.fillRectangle(event.x, event.y, event.width, event.height);
+			event.detail &= ~SWT.BACKGROUND;
+		}
+
+		event.detail &= ~SWT.FOREGROUND;
+	}
+
+	private void paint(Event event, CellValue column)
+	{
+		/* The cell is painted right after it has been erased, so the value and colour index are known already */
+		if (event.item != lastItem || event.index != lastColumn)
+		{
+			lastValue = column.get((HistoryDay) event.item.getData());
+			lastIndex = gradient.getIndex(lastValue);
+		}
+
+		GC gc = event.gc;
+
+		if (fontHeight < 0)
+			fontHeight = gc.getFontMetrics().getHeight();
+
+		if ((event.detail & SWT.SELECTED) != 0)
+			gc.setForeground(table.getDisplay().getSystemColor(SWT.COLOR_LIST_SELECTION_TEXT));
+		else
+			gc.setForeground(getTextColor(lastIndex));
+
+		gc.drawString(format(lastValue), event.x + MARGIN, event.y + (event.height - fontHeight) / 2, true);
+
+		lastItem = null;
+		lastColumn = -1;
+	}
+
+	private Color getColor(int index)
+	{
+		if (gradient.getMax() == gradient.getMin())
+			return table.getDisplay().getSystemColor(SWT.COLOR_WHITE);
+		else
+			return gradient.getColorAt(index);
+	}
+
+	private Color getTextColor(int index)
+	{
+		if (gradient.getMax() == gradient.getMin())
+			return table.getDisplay().getSystemColor(SWT.COLOR_BLACK);
+		else
+			return gradient.getTextColorAt(index);
+	}
+
+	/**
+	 * Formats the given number of seconds as <code>H+:mm:ss</code>, see {@link Durations}
+	 */
+	private String format(int seconds)
+	{
+		int slot = (seconds * 0x9E3779B1 >>> 16) & (CACHE_SIZE - 1);
+
+		if (cachedText[slot] != null && cachedKeys[slot] == seconds)
+			return cachedText[slot];
+
+		String text = new String(buffer, 0, Durations.format(seconds, buffer, 0));
+
+		cachedKeys[slot] = seconds;
+		cachedText[slot] = text;
+
+		return text;
+	}
+
+	/**
+	 * Loads the rows whose page isn't held in memory
+	 */
+	public interface MissingRowListener
+	{
+		/**
+		 * Called when a row is painted whose page isn't loaded. The row is drawn again once its page has been loaded.
+		 *
+		 * @param row The row
+		 */
+		void onMissingRow(int row);
+	}
+
+	/**
+	 * Returns the value of a cell
+	 */
+	public interface CellValue
+	{
+		/**
+		 * Returns the time of the cell in the given row
+		 *
+		 * @param day The {@link HistoryDay} of the row
+		 * @return The time in seconds
+		 */
+		int get(HistoryDay day);
+	}
+}
@@ -19,19 +19,16 @@ package baz.timekeeper.util;
 import org.eclipse.jface.viewers.*;
 import org.eclipse.swt.widgets.*;
 
-import java.util.*;
-import java.util.concurrent.*;
-
-import baz.timekeeper.*;
+import baz.timekeeper.core.*;
 import baz.timekeeper.database.*;
 import jhi.swtcommons.util.*;
 
 public class ProjectCellEditingSupport extends EditingSupport
 {
-	private final Project                project;
-	private final GradientChangeListener listener;
+	private final Project            project;
+	private final CellChangeListener listener;
 
-	public ProjectCellEditingSupport(TableViewer viewer, Project project, GradientChangeListener listener)
+	public ProjectCellEditingSupport(TableViewer viewer, Project project, CellChangeListener listener)
 	{
 		super(viewer);
 		this.project = project;
@@ -47,18 +44,14 @@ public class ProjectCellEditingSupport extends EditingSupport
 	@Override
 	protected boolean canEdit(Object element)
 	{
-		return true;
+		/* Days whose page has been evicted are empty until it has been loaded again */
+		return ((HistoryDay) element).isLoaded();
 	}
 
 	@Override
 	protected Object getValue(Object element)
 	{
-		long time = ((HistoryDay) element).getTime(project);
-
-		long second = TimeUnit.SECONDS.toSeconds(time) % 60;
-		long minute = TimeUnit.SECONDS.toMinutes(time) % 60;
-		long hour = TimeUnit.SECONDS.toHours(time) % 24;
-		return String.format("%02d:%02d:%02d", hour, minute, second);
+		return Durations.format(((HistoryDay) element).getTime(project));
 	}
 
 	@Override
@@ -67,30 +60,28 @@ public class ProjectCellEditingSupport extends EditingSupport
 		try
 		{
 			int value = 0;
-			Calendar cal = Calendar.getInstance();
 
 			if (userInputValue != null && !StringUtils.isEmpty(String.valueOf(userInputValue)))
-			{
-				Date date = Timekeeper.Timer.TIME.parse(String.valueOf(userInputValue));
-				cal.setTime(date);
-				value = cal.get(Calendar.SECOND);
-				value += cal.get(Calendar.MINUTE) * 60;
-				value += cal.get(Calendar.HOUR_OF_DAY) * 3600;
-				value *= 1000;
-			}
+				value = Durations.parse(String.valueOf(userInputValue));
+
+			HistoryDay day = (HistoryDay) element;
+			boolean maxChanged = day.setTime(project, value);
 
-			((HistoryDay) element).setTime(project, value);
-//			getViewer().update(element, null);
-			listener.onGradientChange();
-			getViewer().refresh(true);
+			listener.onCellChange(day, maxChanged);
 		}
 		catch (Exception e)
 		{
 		}
 	}
 
-	public interface GradientChangeListener
+	public interface CellChangeListener
 	{
-		void onGradientChange();
+		/**
+		 * Called after a cell has been edited
+		 *
+		 * @param day        The {@link HistoryDay} that has been edited
+		 * @param maxChanged <code>true</code> if the edit has changed the maximum total of all days, i.e. the range of the colour gradient
+		 */
+		void onCellChange(HistoryDay day, boolean maxChanged);
 	}
 } 
\ No newline at end of file
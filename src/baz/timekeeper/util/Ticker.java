@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Sebastian Raubach
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package baz.timekeeper.util;
+
+import org.eclipse.swt.widgets.*;
+
+import java.util.concurrent.*;
+
+import baz.timekeeper.core.*;
+
+/**
+ * {@link Ticker} is a single {@link Display#timerExec(int, Runnable)} loop that notifies a listener once per second. Instead of blindly
+ * waiting 1000ms after each tick, every tick is scheduled for the next whole second after a given origin, so the listener is called right
+ * after the displayed value of a {@link Stopwatch} changes and delays don't add up.
+ *
+ * @author Sebastian Raubach
+ */
+public class Ticker
+{
+	private static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final Display  display;
+	private final Runnable listener;
+	private final Runnable tick = this::tick;
+
+	private long    originNanos;
+	private boolean running = false;
+
+	public Ticker(Display display, Runnable listener)
+	{
+		this.display = display;
+		this.listener = listener;
+	}
+
+	/**
+	 * Starts the {@link Ticker} or re-aligns it if it's already running
+	 *
+	 * @param originNanos The {@link Stopwatch#now()} value whose whole seconds the ticks should be aligned to
+	 */
+	public void start(long originNanos)
+	{
+		this.originNanos = originNanos;
+
+		if (running)
+			display.timerExec(-1, tick);
+
+		running = true;
+		schedule();
+	}
+
+	/**
+	 * Stops the {@link Ticker}
+	 */
+	public void stop()
+	{
+		running = false;
+
+		if (!display.isDisposed())
+			display.timerExec(-1, tick);
+	}
+
+	private void tick()
+	{
+		if (!running || display.isDisposed())
+			return;
+
+		listener.run();
+		schedule();
+	}
+
+	private void schedule()
+	{
+		long remaining = INTERVAL_NANOS - Math.floorMod(Stopwatch.now() - originNanos, INTERVAL_NANOS);
+
+		/* Round up, waking up just before the second changes would result in a useless tick */
+		display.timerExec((int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining + 999_999)), tick);
+	}
+}
@@ -20,6 +20,7 @@ import java.io.*;
 import java.nio.file.*;
 
 import baz.timekeeper.*;
+import baz.timekeeper.core.*;
 import jhi.swtcommons.util.*;
 
 /**
@@ -27,7 +28,7 @@ import jhi.swtcommons.util.*;
  */
 public class TimesheetPropertyReader extends PropertyReader
 {
-	public static final  String                        PROPERTIES_FOLDER   = "baz";
+	public static final  String                        PROPERTIES_FOLDER   = Environment.DATA_FOLDER_NAME;
 	private static final String                        PREFERENCE_OPACITY  = "preferences.opacity";
 	private static final String                        PREFERENCE_UPDATE   = "preference.update.interval";
 	private static final String                        PROPERTIES_FILE_OLD = "/timesheetinator.properties";